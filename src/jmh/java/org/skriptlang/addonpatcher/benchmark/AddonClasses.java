@@ -0,0 +1,179 @@
+package org.skriptlang.addonpatcher.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates addon classes and jars to benchmark the patcher with.
+ * The classes reference the old Skript API by name only, so no Skript jar is needed.
+ */
+public class AddonClasses {
+
+    /**
+     * What a generated class references, {@link #CLEAN} or the id of a patch rule
+     */
+    public static final String CLEAN = "clean";
+    public static final String[] RULE_IDS = {
+            "currentScript", "currentSections", "currentLoops", "hasDelayBefore",
+            "getCurrentScript", "Trigger.getScript", "Trigger.<init>"
+    };
+
+    private static final String SCRIPT_LOADER = "ch/njol/skript/ScriptLoader";
+    private static final String PARSER_INSTANCE = "ch/njol/skript/lang/parser/ParserInstance";
+    private static final String TRIGGER = "ch/njol/skript/lang/Trigger";
+    private static final String SKRIPT_EVENT = "ch/njol/skript/lang/SkriptEvent";
+    private static final String CONFIG = "ch/njol/skript/config/Config";
+
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+
+    /**
+     * Generates a class with the given amount of methods,
+     * one of which references the given rule (unless it's {@link #CLEAN}).
+     */
+    public static byte[] generate(String name, String rule, int methods) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+
+        MethodVisitor constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (int i = 0; i < methods; i++) {
+            MethodVisitor mv = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "method" + i, "(I)Ljava/lang/String;", null, null);
+            mv.visitCode();
+            if (i == methods / 2 && !CLEAN.equals(rule))
+                reference(mv, rule);
+            filler(mv, i);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Writes the instructions matched by the given rule.
+     */
+    private static void reference(MethodVisitor mv, String rule) {
+        switch (rule) {
+            case "currentScript":
+                field(mv, "currentScript", "L" + CONFIG + ";");
+                break;
+            case "currentSections":
+                field(mv, "currentSections", "Ljava/util/List;");
+                break;
+            case "currentLoops":
+                field(mv, "currentLoops", "Ljava/util/List;");
+                break;
+            case "hasDelayBefore":
+                field(mv, "hasDelayBefore", "Lch/njol/util/Kleenean;");
+                break;
+            case "getCurrentScript":
+                mv.visitMethodInsn(INVOKESTATIC, PARSER_INSTANCE, "get", "()L" + PARSER_INSTANCE + ";", false);
+                mv.visitMethodInsn(INVOKEVIRTUAL, PARSER_INSTANCE, "getCurrentScript", "()L" + CONFIG + ";", false);
+                mv.visitInsn(POP);
+                break;
+            case "Trigger.getScript":
+                mv.visitInsn(ACONST_NULL);
+                mv.visitTypeInsn(CHECKCAST, TRIGGER);
+                mv.visitMethodInsn(INVOKEVIRTUAL, TRIGGER, "getScript", "()Ljava/io/File;", false);
+                mv.visitInsn(POP);
+                break;
+            case "Trigger.<init>":
+                mv.visitTypeInsn(NEW, TRIGGER);
+                mv.visitInsn(DUP);
+                for (int i = 0; i < 4; i++) {
+                    mv.visitInsn(ACONST_NULL);
+                }
+                mv.visitMethodInsn(INVOKESPECIAL, TRIGGER, "<init>",
+                        "(Ljava/io/File;Ljava/lang/String;L" + SKRIPT_EVENT + ";Ljava/util/List;)V", false);
+                mv.visitInsn(POP);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rule " + rule);
+        }
+    }
+
+    private static void field(MethodVisitor mv, String name, String descriptor) {
+        mv.visitFieldInsn(GETSTATIC, SCRIPT_LOADER, name, descriptor);
+        mv.visitFieldInsn(PUTSTATIC, SCRIPT_LOADER, name, descriptor);
+    }
+
+    /**
+     * Writes some unrelated code, so methods have a realistic size.
+     */
+    private static void filler(MethodVisitor mv, int seed) {
+        mv.visitTypeInsn(NEW, STRING_BUILDER);
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, STRING_BUILDER, "<init>", "()V", false);
+        for (int i = 0; i < 8; i++) {
+            mv.visitLdcInsn("part " + seed + "." + i);
+            mv.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "append", "(Ljava/lang/String;)L" + STRING_BUILDER + ";", false);
+            mv.visitVarInsn(ILOAD, 0);
+            mv.visitLdcInsn(seed * 31 + i);
+            mv.visitInsn(IMUL);
+            mv.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "append", "(I)L" + STRING_BUILDER + ";", false);
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "toString", "()Ljava/lang/String;", false);
+        mv.visitInsn(ARETURN);
+    }
+
+    /**
+     * The internal name of the class with the given index in a jar written by {@link #writeJar}.
+     */
+    public static String className(int index) {
+        return "addon/generated/Class" + index;
+    }
+
+    /**
+     * What the class with the given index in a jar written by {@link #writeJar} references.
+     * The hits are spread evenly over the jar.
+     */
+    public static String ruleOf(int index, double hitRatio) {
+        int hitsBefore = (int) (index * hitRatio);
+        if ((int) ((index + 1) * hitRatio) == hitsBefore)
+            return CLEAN;
+        return RULE_IDS[hitsBefore % RULE_IDS.length];
+    }
+
+    /**
+     * Writes an addon jar with the given amount of classes, of which about the given ratio references a rule.
+     * The rules are used in turns, every class has 20 methods. A resource of 64 KiB is added as well.
+     */
+    public static void writeJar(File file, int classes, double hitRatio) throws IOException {
+        Random random = new Random(classes);
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath());
+             JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+            jarOutputStream.putNextEntry(new JarEntry("plugin.yml"));
+            jarOutputStream.write("name: BenchmarkAddon\nmain: addon.Main\nversion: 1.0\ndepend: [Skript]\n"
+                    .getBytes(StandardCharsets.UTF_8));
+
+            byte[] resource = new byte[64 * 1024];
+            random.nextBytes(resource);
+            jarOutputStream.putNextEntry(new JarEntry("resource.bin"));
+            jarOutputStream.write(resource);
+
+            for (int i = 0; i < classes; i++) {
+                jarOutputStream.putNextEntry(new JarEntry(className(i) + ".class"));
+                jarOutputStream.write(generate(className(i), ruleOf(i, hitRatio), 20));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.skriptlang.addonpatcher.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skriptlang.addonpatcher.variants.agent.Agent;
+import org.skriptlang.addonpatcher.variants.agent.ClassCache;
+import org.skriptlang.addonpatcher.variants.agent.ClassFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks {@link Agent.ClassPatcher#transform} on the classes of a generated addon jar,
+ * the way the JVM calls it while plugins load their classes, possibly on multiple threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentTransformBenchmark {
+
+    private static final int CLASSES = 500;
+
+    /**
+     * The ratio of classes referencing a rule
+     */
+    @Param({"0", "0.2"})
+    public double hitRatio;
+
+    /**
+     * Whether patched classes are cached on disk
+     */
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private Path directory;
+    private List<String> classNames;
+    private List<byte[]> classBytes;
+    private URLClassLoader loader;
+    private ProtectionDomain protectionDomain;
+    private Agent.ClassPatcher classPatcher;
+
+    @Setup
+    public void setup() throws IOException {
+        // The agent warns about every patched jar once
+        Logger.getLogger("AddonPatcher").setLevel(java.util.logging.Level.SEVERE);
+
+        directory = Files.createTempDirectory("addonpatcher-benchmark");
+        File plugins = directory.resolve("plugins").toFile();
+        if (!plugins.mkdir())
+            throw new IOException("Couldn't create " + plugins);
+        File jar = new File(plugins, "addon.jar");
+        AddonClasses.writeJar(jar, CLASSES, hitRatio);
+
+        // The same classes as in the jar, the transformer gets them from the class loader
+        classNames = new ArrayList<>();
+        classBytes = new ArrayList<>();
+        for (int i = 0; i < CLASSES; i++) {
+            String name = AddonClasses.className(i);
+            classNames.add(name);
+            classBytes.add(AddonClasses.generate(name, AddonClasses.ruleOf(i, hitRatio), 20));
+        }
+
+        URL location = jar.toURI().toURL();
+        loader = new URLClassLoader(new URL[] {location}, null);
+        protectionDomain = new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null);
+
+        ClassCache classCache = cached ? ClassCache.open(Logger.getLogger("AddonPatcher"), directory.resolve("cache").toFile()) : null;
+        classPatcher = new Agent.ClassPatcher(new ClassFilter(plugins, Collections.emptyList()), classCache);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loader.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * The index of the next class to transform, per thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            index = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] transform(Cursor cursor) {
+        return transformNext(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] transformConcurrent(Cursor cursor) {
+        return transformNext(cursor);
+    }
+
+    private byte[] transformNext(Cursor cursor) {
+        int index = cursor.index;
+        cursor.index = index + 1 == CLASSES ? 0 : index + 1;
+        return classPatcher.transform(loader, classNames.get(index), null, protectionDomain, classBytes.get(index));
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.skriptlang.addonpatcher.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmarks {@link Patcher#patchClass(byte[], AtomicBoolean)} on a single class,
+ * either clean or referencing a single rule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchClassBenchmark {
+
+    @Param({
+            AddonClasses.CLEAN,
+            "currentScript", "currentSections", "currentLoops", "hasDelayBefore",
+            "getCurrentScript", "Trigger.getScript", "Trigger.<init>"
+    })
+    public String rule;
+
+    /**
+     * The amount of methods of the class, only one of which references the rule
+     */
+    @Param({"5", "200"})
+    public int methods;
+
+    private byte[] classBytes;
+
+    @Setup
+    public void setup() {
+        classBytes = AddonClasses.generate("addon/Benchmark", rule, methods);
+    }
+
+    @Benchmark
+    public byte[] patchClass() {
+        return Patcher.patchClass(classBytes, new AtomicBoolean());
+    }
+
+    @Benchmark
+    public boolean mayNeedPatching() {
+        return Patcher.mayNeedPatching(classBytes);
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.skriptlang.addonpatcher.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Benchmarks patching a whole generated addon jar, without writing the result to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchJarBenchmark {
+
+    /**
+     * The amount of classes in the jar
+     */
+    @Param({"100", "2000"})
+    public int classes;
+
+    /**
+     * The ratio of classes referencing a rule
+     */
+    @Param({"0", "0.01", "0.2"})
+    public double hitRatio;
+
+    /**
+     * The parallelism of the pool used by {@link #patchJar()}
+     */
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private File directory;
+    private File jar;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("addonpatcher-benchmark").toFile();
+        jar = new File(directory, "addon.jar");
+        AddonClasses.writeJar(jar, classes, hitRatio);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        if (!jar.delete() || !directory.delete())
+            System.err.println("Couldn't delete " + directory);
+    }
+
+    @Benchmark
+    public boolean patchJar() throws IOException {
+        try (ZipArchive archive = ZipArchive.open(jar)) {
+            return Patcher.patchJar(archive, NullOutputStream.INSTANCE, false, pool);
+        }
+    }
+
+    /**
+     * The original, sequential way of patching a jar, for comparison
+     */
+    @Benchmark
+    public boolean patchJarFile() throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            return Patcher.patchJar(jarFile, NullOutputStream.INSTANCE, false);
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        private static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public void close() {
+            // The patcher closes the stream it writes the jar to
+        }
+
+    }
+
+}
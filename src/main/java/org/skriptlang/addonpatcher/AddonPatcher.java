@@ -2,6 +2,7 @@ package org.skriptlang.addonpatcher;
 
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.skriptlang.addonpatcher.metrics.PatcherMetrics;
 import org.skriptlang.addonpatcher.variants.Replacer;
 import org.skriptlang.addonpatcher.variants.agent.AgentPlugin;
 
@@ -52,7 +53,7 @@ public class AddonPatcher extends JavaPlugin {
     public AddonPatcher() {
         super();
         if (getVariant() == REPLACER) {
-            Replacer.replaceFiles(getLogger());
+            Replacer.replaceFiles(getLogger(), getDataFolder());
         } else if (getVariant() == AGENT) {
             boolean success = AgentPlugin.load(this, getFile());
             if (!success) {
@@ -69,7 +70,11 @@ public class AddonPatcher extends JavaPlugin {
         if (shouldDisable) {
             getLogger().severe("AddonPatcher couldn't be started. Scroll all the way up in console to see the errors.");
             Bukkit.getPluginManager().disablePlugin(this);
+            return;
         }
+
+        // Runs once all plugins are enabled, so the classes they loaded while enabling are included
+        Bukkit.getScheduler().runTask(this, () -> PatcherMetrics.logSummary(getLogger()));
     }
 
 }
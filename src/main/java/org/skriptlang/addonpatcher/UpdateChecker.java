@@ -1,99 +1,273 @@
 package org.skriptlang.addonpatcher;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.bukkit.Bukkit;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+/**
+ * Checks whether a newer AddonPatcher release was published on GitHub.
+ * <p>
+ * The ETag of the last response is stored on disk together with the release it described,
+ * so that later checks send {@code If-None-Match} and usually only get a {@code 304 Not Modified} back.
+ */
 public class UpdateChecker {
 
     private static final String UPDATE_URL = "https://api.github.com/repos/SkriptLang/AddonPatcher/releases/latest";
 
+    /**
+     * The connect and read timeout of the request, so a hanging connection can't keep the check running
+     */
+    public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private static final String CACHE_HEADER = "AddonPatcher update cache v1";
+
+    /**
+     * The latest published release
+     */
+    public static class Release {
+        private final String tag;
+        private final String url;
+
+        public Release(String tag, String url) {
+            this.tag = tag;
+            this.url = url;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    /**
+     * A release together with the ETag of the response it was read from
+     */
+    private static class CachedRelease {
+        private final String etag;
+        private final Release release;
+
+        private CachedRelease(String etag, Release release) {
+            this.etag = etag;
+            this.release = release;
+        }
+    }
+
+    private final URL url;
+    private final File cacheFile;
+    private final int timeoutMillis;
+
+    /**
+     * @param url the GitHub API URL of the latest release
+     * @param cacheFile the file the last response is stored in, or null to not cache anything
+     * @param timeoutMillis the connect and read timeout
+     */
+    public UpdateChecker(URL url, File cacheFile, int timeoutMillis) {
+        this.url = url;
+        this.cacheFile = cacheFile;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Checks for updates on a separate daemon thread, logging a warning if a newer version is available.
+     */
     public static void check() {
         AddonPatcher addonPatcher = (AddonPatcher) Bukkit.getPluginManager().getPlugin("AddonPatcher");
         Objects.requireNonNull(addonPatcher);
         Logger logger = addonPatcher.getLogger();
-        CompletableFuture.runAsync(() -> {
-            URL url;
+
+        UpdateChecker updateChecker;
+        try {
+            updateChecker = new UpdateChecker(new URL(UPDATE_URL),
+                    new File(addonPatcher.getDataFolder(), "update-cache.txt"), DEFAULT_TIMEOUT_MILLIS);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Not on the common pool, which other plugins rely on, since this blocks on the network
+        Thread thread = new Thread(() -> {
+            Release release;
             try {
-                url = new URL(UPDATE_URL);
-            } catch (MalformedURLException e) {
-                throw new RuntimeException(e);
+                release = updateChecker.fetchLatestRelease();
+            } catch (IOException | RuntimeException e) {
+                // Run prints on main thread, so they're more likely to be on subsequent lines
+                Bukkit.getScheduler().runTask(addonPatcher, () -> {
+                    logger.warning("Couldn't check for updates, please report this error if your internet connection works properly.");
+                    e.printStackTrace();
+                });
+                return;
             }
-            JsonObject jsonObject;
-            try {
-                URLConnection urlConnection = url.openConnection();
-                if (!(urlConnection instanceof HttpURLConnection))
-                    throw new IllegalStateException();
-                HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
-
-                int responseCode = httpConnection.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
-                    // No update published yet, disable update checker
-                    return;
-                } else if (responseCode != HttpURLConnection.HTTP_OK) {
-                    // Unexpected status code received, error
-                    InputStream errorStream = httpConnection.getErrorStream();
-                    if (errorStream != null) { // (null check includes check if response code is actual error)
-                        BufferedReader errorReader = new BufferedReader(
-                                new InputStreamReader(errorStream, StandardCharsets.UTF_8));
+            if (release == null) {
+                // No update published yet
+                return;
+            }
+
+            // Check if tags don't equal, since any update will be released on GH,
+            //  this checks if they have the latest update
+            if (!(release.getTag().equals(addonPatcher.getDescription().getVersion())
+                    || release.getTag().equals("v" + addonPatcher.getDescription().getVersion())
+            )) {
+                // Update needed, warn user
+                // (single line logger usage, no need to run on main thread)
+                logger.warning("New update available: " + release.getTag() + ". Get it here: " + release.getUrl());
+            }
+        }, "AddonPatcher Update Checker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Requests the latest release, blocking until it's received.
+     * If the release didn't change since the last request, the cached release is returned instead.
+     *
+     * @return the latest release, or null if no release was published yet
+     * @throws IOException if the request failed or timed out, or the response was unexpected
+     */
+    public Release fetchLatestRelease() throws IOException {
+        CachedRelease cached = readCache();
+
+        URLConnection urlConnection = url.openConnection();
+        if (!(urlConnection instanceof HttpURLConnection))
+            throw new IllegalStateException();
+        HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+        httpConnection.setConnectTimeout(timeoutMillis);
+        httpConnection.setReadTimeout(timeoutMillis);
+        httpConnection.setRequestProperty("Accept", "application/vnd.github+json");
+        if (cached != null)
+            httpConnection.setRequestProperty("If-None-Match", cached.etag);
+
+        try {
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return cached.release;
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                // No update published yet
+                return null;
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                // Unexpected status code received, error
+                InputStream errorStream = httpConnection.getErrorStream();
+                if (errorStream != null) { // (null check includes check if response code is actual error)
+                    try (BufferedReader errorReader = new BufferedReader(
+                            new InputStreamReader(errorStream, StandardCharsets.UTF_8))) {
                         String error = errorReader.lines().collect(Collectors.joining("\n"));
 
                         throw new IOException("Unexpected response code: " + responseCode + " (" + error + ")");
                     }
-
-                    throw new IOException("Unexpected response code: " + responseCode);
                 }
 
-                InputStream inputStream = httpConnection.getInputStream();
-                Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+                throw new IOException("Unexpected response code: " + responseCode);
+            }
 
-                jsonObject = new Gson().fromJson(reader, JsonElement.class).getAsJsonObject();
-            } catch (IOException e) {
-                throw new CompletionException(e);
-                // Wrap in CompletionException so it can be thrown from Runnable
+            Release release;
+            try (JsonReader reader = new JsonReader(
+                    new InputStreamReader(httpConnection.getInputStream(), StandardCharsets.UTF_8))) {
+                release = readRelease(reader);
             }
-            String updateTag = jsonObject.get("tag_name").getAsString();
-            String updateUrl = jsonObject.get("html_url").getAsString();
 
-            // Check if tags don't equal, since any update will be released on GH,
-            //  this checks if they have the latest update
-            if (!(updateTag.equals(addonPatcher.getDescription().getVersion())
-                    || updateTag.equals("v" + addonPatcher.getDescription().getVersion())
-            )) {
-                // Update needed, warn user
-                // (single line logger usage, no need to run on main thread)
-                logger.warning("New update available: " + updateTag + ". Get it here: " + updateUrl);
+            String etag = httpConnection.getHeaderField("ETag");
+            if (etag != null)
+                writeCache(new CachedRelease(etag, release));
+            return release;
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the tag and URL of a GitHub release, without reading the rest of the (large) response
+     */
+    private static Release readRelease(JsonReader reader) throws IOException {
+        String tag = null;
+        String releaseUrl = null;
+        reader.beginObject();
+        while ((tag == null || releaseUrl == null) && reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("tag_name") && reader.peek() == JsonToken.STRING) {
+                tag = reader.nextString();
+            } else if (name.equals("html_url") && reader.peek() == JsonToken.STRING) {
+                releaseUrl = reader.nextString();
+            } else {
+                reader.skipValue();
             }
-        }).exceptionally(t -> {
-            // Run prints on main thread, so they're more likely to be on subsequent lines
-            Bukkit.getScheduler().runTask(addonPatcher, () -> {
-                logger.warning("Couldn't check for updates, please report this error if your internet connection works properly.");
+        }
 
-                Throwable throwable = t;
-                if (throwable instanceof CompletionException && throwable.getCause() != null)
-                    throwable = throwable.getCause();
-                throwable.printStackTrace();
-            });
+        if (tag == null || releaseUrl == null)
+            throw new IOException("The release is missing its tag_name or html_url");
+        return new Release(tag, releaseUrl);
+    }
 
+    /**
+     * Returns the cached release, or null if there is none (or it can't be read)
+     */
+    private CachedRelease readCache() {
+        if (cacheFile == null || !cacheFile.isFile())
             return null;
-        });
+
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!CACHE_HEADER.equals(reader.readLine()))
+                return null;
+            String etag = reader.readLine();
+            String tag = reader.readLine();
+            String releaseUrl = reader.readLine();
+            if (etag == null || tag == null || releaseUrl == null)
+                return null;
+            return new CachedRelease(etag, new Release(tag, releaseUrl));
+        } catch (IOException e) {
+            return null; // The release is just requested in full again
+        }
+    }
+
+    /**
+     * Writes the given release to the cache file, replacing it atomically where supported
+     */
+    private void writeCache(CachedRelease cached) {
+        if (cacheFile == null)
+            return;
+
+        try {
+            Path path = cacheFile.toPath();
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Path tempPath = path.resolveSibling(cacheFile.getName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                writer.write(CACHE_HEADER);
+                writer.newLine();
+                writer.write(cached.etag);
+                writer.newLine();
+                writer.write(cached.release.getTag());
+                writer.newLine();
+                writer.write(cached.release.getUrl());
+                writer.newLine();
+            }
+
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ignored) {
+            // Not cached, the next check just requests the full release again
+        }
     }
 
 }
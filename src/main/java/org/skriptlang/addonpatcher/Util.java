@@ -4,6 +4,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.jar.JarEntry;
 
 public class Util {
@@ -38,7 +40,7 @@ public class Util {
      * Doesn't close either of the given streams.
      */
     public static void transferStreams(InputStream inputStream, OutputStream outputStream) throws IOException {
-        byte[] bytes = new byte[1024];
+        byte[] bytes = new byte[8192];
         int length;
         while ((length = inputStream.read(bytes)) != -1) {
             outputStream.write(bytes, 0, length);
@@ -54,4 +56,26 @@ public class Util {
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * Creates a new SHA-256 {@link MessageDigest}.
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM is required to support SHA-256
+        }
+    }
+
+    /**
+     * Converts the given bytes to a lowercase hexadecimal string.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
 }
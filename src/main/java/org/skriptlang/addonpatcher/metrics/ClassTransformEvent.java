@@ -0,0 +1,46 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A single class looked at by the patcher, only loaded through {@link JfrEvents}.
+ */
+@Name("AddonPatcher.ClassTransform")
+@Label("Class Transform")
+@Category("AddonPatcher")
+@Description("A class of an addon checked and possibly patched by AddonPatcher")
+@StackTrace(false)
+class ClassTransformEvent extends Event {
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Class Loader")
+    @Description("The class loader defining the class, null if the class is patched outside of class loading")
+    String classLoader;
+
+    @Label("Jar")
+    String jar;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Patched")
+    boolean patched;
+
+    @Label("Rules")
+    @Description("The IDs of the rules applied to the class, empty if the patched class came from the class cache or was prefetched")
+    String rules;
+
+}
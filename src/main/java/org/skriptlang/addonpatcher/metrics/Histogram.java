@@ -0,0 +1,61 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with a bucket per power of two nanoseconds.
+ * Recording is lock-free, so it can be done from many threads at once;
+ * percentiles are accurate to a factor of two.
+ */
+public class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[buckets.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        long total = this.total.sum();
+        long max = this.max.get();
+        return new HistogramSnapshot(count, total, count == 0 ? 0 : total / count,
+                percentile(counts, count, 0.5, max), percentile(counts, count, 0.99, max), max);
+    }
+
+    /**
+     * The upper bound of the bucket containing the given percentile, but not more than the maximum.
+     */
+    private static long percentile(long[] counts, long count, double percentile, long max) {
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0)
+                return Math.min(max, i == 62 ? Long.MAX_VALUE : (2L << i) - 1);
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of a {@link Histogram} at some point in time, exposed through JMX as composite data.
+ * Times are in microseconds, except for the total.
+ */
+public class HistogramSnapshot {
+
+    private final long count;
+    private final long totalNanos;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    public HistogramSnapshot(long count, long totalNanos, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(meanNanos);
+    }
+
+    public long getP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(p50Nanos);
+    }
+
+    public long getP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(p99Nanos);
+    }
+
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+    }
+
+    @Override
+    public String toString() {
+        return count + " times, " + getTotalMillis() + " ms total (mean " + millis(meanNanos) + ", p50 "
+                + millis(p50Nanos) + ", p99 " + millis(p99Nanos) + ", max " + millis(maxNanos) + ")";
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+    }
+
+}
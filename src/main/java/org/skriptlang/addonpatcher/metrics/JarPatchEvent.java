@@ -0,0 +1,42 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A whole jar patched by the patcher, only loaded through {@link JfrEvents}.
+ */
+@Name("AddonPatcher.JarPatch")
+@Label("Jar Patch")
+@Category("AddonPatcher")
+@Description("An addon jar checked and possibly patched by AddonPatcher")
+@StackTrace(false)
+class JarPatchEvent extends Event {
+
+    @Label("Jar")
+    String jar;
+
+    @Label("Entries")
+    int entries;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Changed")
+    boolean changed;
+
+    @Label("Rules")
+    @Description("The IDs of the rules applied to any class of the jar")
+    String rules;
+
+}
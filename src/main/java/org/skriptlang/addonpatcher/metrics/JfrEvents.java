@@ -0,0 +1,59 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import java.util.Collection;
+
+/**
+ * Creates and commits the JFR events of {@link PatchEvents}.
+ * This is the only class referencing the event classes, so it must only be loaded if {@code jdk.jfr} exists.
+ */
+class JfrEvents {
+
+    static Object beginClassTransform() {
+        ClassTransformEvent event = new ClassTransformEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    static void commitClassTransform(Object object, String className, ClassLoader loader, String jar,
+                                     long bytesIn, long bytesOut, boolean patched, Collection<String> rules) {
+        ClassTransformEvent event = (ClassTransformEvent) object;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.className = className;
+        event.classLoader = loader == null ? null
+                : loader.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(loader));
+        event.jar = jar;
+        event.bytesIn = bytesIn;
+        event.bytesOut = bytesOut;
+        event.patched = patched;
+        event.rules = rules == null ? null : String.join(",", rules);
+        event.commit();
+    }
+
+    static Object beginJarPatch() {
+        JarPatchEvent event = new JarPatchEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    static void commitJarPatch(Object object, String jar, int entries, long bytesIn, long bytesOut,
+                               boolean changed, Collection<String> rules) {
+        JarPatchEvent event = (JarPatchEvent) object;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.jar = jar;
+        event.entries = entries;
+        event.bytesIn = bytesIn;
+        event.bytesOut = bytesOut;
+        event.changed = changed;
+        event.rules = rules == null ? null : String.join(",", rules);
+        event.commit();
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Emits the {@code AddonPatcher.ClassTransform} and {@code AddonPatcher.JarPatch} Java Flight Recorder events,
+ * so patching can be compared to class loading and lock contention in a recording of a slow start.
+ * <p>
+ * The {@code jdk.jfr} module doesn't exist on older Java 8 runtimes, so the events are only touched
+ * if it's available. Begin methods return a handle to pass to the matching commit method,
+ * or null if the event isn't being recorded, in which case nothing else should be collected for it.
+ */
+public class PatchEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private PatchEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PatchEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts timing a class transformation, returns null if it isn't recorded.
+     */
+    public static Object beginClassTransform() {
+        return AVAILABLE ? JfrEvents.beginClassTransform() : null;
+    }
+
+    /**
+     * Ends and commits an event started by {@link #beginClassTransform()}, does nothing if the event is null.
+     *
+     * @param loader the loader defining the class, or null if the class isn't being loaded
+     * @param result the patched class, or null if the class wasn't changed
+     * @param rules the IDs of the applied rules, may be null
+     */
+    public static void commitClassTransform(Object event, String className, ClassLoader loader, String jar,
+                                            byte[] classBytes, byte[] result, Collection<String> rules) {
+        if (event == null)
+            return;
+        boolean patched = result != null && result != classBytes;
+        JfrEvents.commitClassTransform(event, className, loader, jar, classBytes.length,
+                patched ? result.length : classBytes.length, patched, rules);
+    }
+
+    /**
+     * Starts timing the patching of a jar, returns null if it isn't recorded.
+     */
+    public static Object beginJarPatch() {
+        return AVAILABLE ? JfrEvents.beginJarPatch() : null;
+    }
+
+    /**
+     * Ends and commits an event started by {@link #beginJarPatch()}, does nothing if the event is null.
+     *
+     * @param rules the IDs of the rules applied to any class of the jar, may be null
+     */
+    public static void commitJarPatch(Object event, String jar, int entries, long bytesIn, long bytesOut,
+                                      boolean changed, Collection<String> rules) {
+        if (event != null)
+            JfrEvents.commitJarPatch(event, jar, entries, bytesIn, bytesOut, changed, rules);
+    }
+
+    /**
+     * Returns a sorted set to collect the applied rules in, which may be shared between threads,
+     * or null if the given event isn't recorded.
+     */
+    public static Set<String> ruleSet(Object event) {
+        return event == null ? null : new ConcurrentSkipListSet<>();
+    }
+
+}
@@ -0,0 +1,280 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Counts what the patcher does and how long it takes, so the cost of the patcher (and of each addon) can be seen.
+ * <p>
+ * The metrics are registered as a platform MBean, which is also how the plugin reads them:
+ * the agent's classes may be loaded by another class loader than the plugin's,
+ * in which case the plugin's {@link #get()} wouldn't return the instance the agent records to.
+ */
+public class PatcherMetrics implements PatcherMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.skriptlang.addonpatcher:type=PatcherMetrics";
+
+    /**
+     * The amount of jars listed in the summary
+     */
+    private static final int SLOWEST_JARS = 5;
+
+    private static final PatcherMetrics INSTANCE = new PatcherMetrics();
+
+    public static PatcherMetrics get() {
+        return INSTANCE;
+    }
+
+    private final LongAdder classesSeen = new LongAdder();
+    private final LongAdder classesFiltered = new LongAdder();
+    private final LongAdder classesScanned = new LongAdder();
+    private final LongAdder classesPatched = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder totalTime = new LongAdder();
+    private final Histogram classTransformTime = new Histogram();
+    private final Histogram jarPatchTime = new Histogram();
+    private final Map<String, LongAdder> timeByJar = new ConcurrentHashMap<>();
+
+    private PatcherMetrics() {
+    }
+
+    public void classSeen() {
+        classesSeen.increment();
+    }
+
+    public void classFiltered() {
+        classesFiltered.increment();
+    }
+
+    public void classScanned() {
+        classesScanned.increment();
+    }
+
+    public void classPatched() {
+        classesPatched.increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void prefetchHit() {
+        prefetchHits.increment();
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    /**
+     * Records the time the agent took to handle a single class.
+     */
+    public void recordClassTransform(long nanos) {
+        classTransformTime.record(nanos);
+    }
+
+    /**
+     * Records a single patched jar, see {@link org.skriptlang.addonpatcher.patcher.Patcher#patchJar}.
+     */
+    public void recordJarPatch(long nanos, long bytesRead, long bytesWritten) {
+        jarPatchTime.record(nanos);
+        this.bytesRead.add(bytesRead);
+        this.bytesWritten.add(bytesWritten);
+    }
+
+    /**
+     * Adds time spent on the given jar.
+     */
+    public void recordJarTime(String jarName, long nanos) {
+        LongAdder time = timeByJar.get(jarName);
+        if (time == null)
+            time = timeByJar.computeIfAbsent(jarName, k -> new LongAdder());
+        time.add(nanos);
+    }
+
+    /**
+     * Adds time spent on all jars at once.
+     */
+    public void recordTotalTime(long nanos) {
+        totalTime.add(nanos);
+    }
+
+    @Override
+    public long getClassesSeen() {
+        return classesSeen.sum();
+    }
+
+    @Override
+    public long getClassesFiltered() {
+        return classesFiltered.sum();
+    }
+
+    @Override
+    public long getClassesScanned() {
+        return classesScanned.sum();
+    }
+
+    @Override
+    public long getClassesPatched() {
+        return classesPatched.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getTotalTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalTime.sum());
+    }
+
+    @Override
+    public HistogramSnapshot getClassTransformTime() {
+        return classTransformTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getJarPatchTime() {
+        return jarPatchTime.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getTimeByJarMillis() {
+        Map<String, Long> result = new HashMap<>();
+        timeByJar.forEach((jar, time) -> result.put(jar, TimeUnit.NANOSECONDS.toMillis(time.sum())));
+        return result;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Classes: ").append(getClassesSeen()).append(" seen, ")
+                .append(getClassesFiltered()).append(" filtered, ")
+                .append(getClassesScanned()).append(" scanned, ")
+                .append(getClassesPatched()).append(" patched, ")
+                .append(getCacheHits()).append(" cache hits, ")
+                .append(getPrefetchHits()).append(" prefetched, ")
+                .append(getErrors()).append(" errors.");
+
+        HistogramSnapshot classTransformTime = getClassTransformTime();
+        if (classTransformTime.getCount() > 0)
+            summary.append(" Transforms: ").append(classTransformTime).append('.');
+
+        HistogramSnapshot jarPatchTime = getJarPatchTime();
+        if (jarPatchTime.getCount() > 0) {
+            summary.append(" Jar patches: ").append(jarPatchTime).append(", ")
+                    .append(kibibytes(getBytesRead())).append(" read, ")
+                    .append(kibibytes(getBytesWritten())).append(" written.");
+        }
+
+        long totalTime = getTotalTimeMillis();
+        if (totalTime > 0)
+            summary.append(" Total: ").append(totalTime).append(" ms.");
+
+        List<Map.Entry<String, LongAdder>> jars = new ArrayList<>(timeByJar.entrySet());
+        if (!jars.isEmpty()) {
+            jars.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+            summary.append(" Slowest jars:");
+            for (int i = 0; i < Math.min(SLOWEST_JARS, jars.size()); i++) {
+                Map.Entry<String, LongAdder> jar = jars.get(i);
+                summary.append(i == 0 ? " " : ", ").append(jar.getKey()).append(" (")
+                        .append(TimeUnit.NANOSECONDS.toMillis(jar.getValue().sum())).append(" ms)");
+            }
+            summary.append('.');
+        }
+
+        return summary.toString();
+    }
+
+    @Override
+    public void reset() {
+        classesSeen.reset();
+        classesFiltered.reset();
+        classesScanned.reset();
+        classesPatched.reset();
+        cacheHits.reset();
+        prefetchHits.reset();
+        errors.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        totalTime.reset();
+        classTransformTime.reset();
+        jarPatchTime.reset();
+        timeByJar.clear();
+    }
+
+    private static String kibibytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+    }
+
+    /**
+     * Registers the metrics as a platform MBean, unless metrics were registered already.
+     */
+    public void register(Logger logger) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+        } catch (InstanceAlreadyExistsException ignored) {
+            // Registered by the agent (or the plugin) already
+        } catch (JMException e) {
+            logger.warning("Couldn't register the patcher metrics: " + e);
+        }
+    }
+
+    /**
+     * Logs the summary of the registered metrics, if any, no matter which class loader registered them.
+     */
+    public static void logSummary(Logger logger) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            logger.info((String) server.getAttribute(objectName(), "Summary"));
+        } catch (InstanceNotFoundException ignored) {
+            // Nothing was patched
+        } catch (JMException e) {
+            logger.warning("Couldn't read the patcher metrics: " + e);
+        }
+    }
+
+    private static ObjectName objectName() throws MalformedObjectNameException {
+        return new ObjectName(OBJECT_NAME);
+    }
+
+}
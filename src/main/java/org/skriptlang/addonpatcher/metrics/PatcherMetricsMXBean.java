@@ -0,0 +1,64 @@
+package org.skriptlang.addonpatcher.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX interface of {@link PatcherMetrics}, registered as {@value PatcherMetrics#OBJECT_NAME}.
+ */
+public interface PatcherMetricsMXBean {
+
+    /**
+     * Classes given to the agent, or found in patched jars
+     */
+    long getClassesSeen();
+
+    /**
+     * Classes skipped without looking at their bytes
+     */
+    long getClassesFiltered();
+
+    /**
+     * Classes checked for references to anything the patcher replaces
+     */
+    long getClassesScanned();
+
+    long getClassesPatched();
+
+    /**
+     * Classes (agent) or jars (replacer) of which the result was cached by a previous start
+     */
+    long getCacheHits();
+
+    /**
+     * Classes of which the agent found the result patched in the background already
+     */
+    long getPrefetchHits();
+
+    long getErrors();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * The time the replacer took to check all plugin jars
+     */
+    long getTotalTimeMillis();
+
+    HistogramSnapshot getClassTransformTime();
+
+    HistogramSnapshot getJarPatchTime();
+
+    /**
+     * The time spent on the classes of each jar, by jar name
+     */
+    Map<String, Long> getTimeByJarMillis();
+
+    /**
+     * All of the above in a single line, as logged when the server has started
+     */
+    String getSummary();
+
+    void reset();
+
+}
@@ -0,0 +1,93 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Patches multiple jar files concurrently, on a bounded number of threads.
+ * The results are handed back on the calling thread in the order of the given files,
+ * so that logging stays the same no matter which jar finishes first.
+ */
+public class BatchPatcher {
+
+    /**
+     * The system property used to configure the amount of jars patched at the same time.
+     */
+    public static final String THREADS_PROPERTY = "addonpatcher.threads";
+
+    /**
+     * The amount of jars patched at the same time, unless configured otherwise.
+     */
+    public static int defaultThreads() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Patches a single jar file, returns whether it was changed.
+     */
+    @FunctionalInterface
+    public interface JarPatcher {
+        boolean patch(File file) throws IOException;
+    }
+
+    /**
+     * Receives the result of patching a single jar file.
+     */
+    @FunctionalInterface
+    public interface ResultHandler {
+        /**
+         * @param exception the exception thrown while patching, or null if none was thrown
+         */
+        void handle(File file, boolean changed, Exception exception);
+    }
+
+    /**
+     * Patches all given files using the given {@link JarPatcher}, with at most the given amount of threads.
+     * The {@link ResultHandler} is called on the calling thread, in the order of the given files.
+     */
+    public static void patchAll(List<File> files, int threads, JarPatcher patcher, ResultHandler handler) {
+        if (files.isEmpty())
+            return;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), runnable -> {
+            Thread thread = new Thread(runnable, "AddonPatcher Worker #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(() -> patcher.patch(file)));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                boolean changed = false;
+                Exception exception = null;
+                try {
+                    changed = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    exception = (Exception) e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                handler.handle(files.get(i), changed, exception);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans the constant pool of a class file for UTF-8 constants,
+ * without parsing the rest of the class.
+ * <p>
+ * Every field and method the patcher replaces is referenced through a {@code CONSTANT_Class}
+ * pointing to the internal name of its owner, so a class that doesn't contain any of those names
+ * in its constant pool can't need patching.
+ */
+public class ConstantPoolScanner {
+
+    // Constant pool tags, see https://docs.oracle.com/javase/specs/jvms/se17/html/jvms-4.html#jvms-4.4
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    /**
+     * The UTF-8 encoded strings to look for
+     */
+    private final byte[][] targets;
+
+    public ConstantPoolScanner(String... targets) {
+        this.targets = new byte[targets.length][];
+        for (int i = 0; i < targets.length; i++) {
+            // Internal names of the targets are plain ASCII, so this matches the modified UTF-8 in class files
+            this.targets[i] = targets[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Checks whether the constant pool of the given class contains one of the targets as UTF-8 constant.
+     * <p>
+     * If the class file can't be parsed, this returns true,
+     * so the caller falls back to its regular (error reporting) path.
+     */
+    public boolean containsAny(byte[] classBytes) {
+        try {
+            return scan(classBytes);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private boolean scan(byte[] b) {
+        if (b.length < 10)
+            return true;
+
+        int count = readUnsignedShort(b, 8);
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = b[offset];
+            switch (tag) {
+                case UTF8: {
+                    int length = readUnsignedShort(b, offset + 1);
+                    if (matches(b, offset + 3, length))
+                        return true;
+                    offset += 3 + length;
+                    break;
+                }
+                case CLASS:
+                case STRING:
+                case METHOD_TYPE:
+                case MODULE:
+                case PACKAGE:
+                    offset += 3;
+                    break;
+                case METHOD_HANDLE:
+                    offset += 4;
+                    break;
+                case INTEGER:
+                case FLOAT:
+                case FIELD_REF:
+                case METHOD_REF:
+                case INTERFACE_METHOD_REF:
+                case NAME_AND_TYPE:
+                case DYNAMIC:
+                case INVOKE_DYNAMIC:
+                    offset += 5;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    // 8-byte constants take up two entries
+                    offset += 9;
+                    i++;
+                    break;
+                default:
+                    // Unknown constant, can't skip it safely
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean matches(byte[] b, int start, int length) {
+        outer:
+        for (byte[] target : targets) {
+            if (target.length != length)
+                continue;
+            for (int i = 0; i < length; i++) {
+                if (b[start + i] != target[i])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int readUnsignedShort(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+}
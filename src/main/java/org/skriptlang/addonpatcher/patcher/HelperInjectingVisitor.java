@@ -0,0 +1,76 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.skriptlang.addonpatcher.patcher.rules.HelperMethod;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A {@link ClassVisitor} which adds the {@link HelperMethod}s invoked through {@link #invokeHelper}
+ * to the end of the visited class.
+ * Helpers are added at most once per class, no matter how often they are invoked.
+ */
+public class HelperInjectingVisitor extends ClassVisitor {
+
+    private String className;
+    private boolean isInterface;
+    private int majorVersion;
+
+    /**
+     * The name and descriptor (concatenated) of every method the class already has
+     */
+    private final Set<String> declaredMethods = new HashSet<>();
+    private final Set<HelperMethod> usedHelpers = new LinkedHashSet<>();
+
+    public HelperInjectingVisitor(ClassVisitor classVisitor) {
+        super(Opcodes.ASM9, classVisitor);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.className = name;
+        this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        this.majorVersion = version & 0xFFFF;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        declaredMethods.add(name + descriptor);
+        return super.visitMethod(access, name, descriptor, signature, exceptions);
+    }
+
+    /**
+     * Writes an invocation of the given helper to the given {@link MethodVisitor},
+     * and remembers to add the helper to this class.
+     */
+    public void invokeHelper(MethodVisitor mv, HelperMethod helper) {
+        // Interfaces can only have static methods since Java 8
+        if (isInterface && majorVersion < Opcodes.V1_8)
+            throw new IllegalStateException("Can't add helper methods to interface " + className
+                    + " of class version " + majorVersion);
+        usedHelpers.add(helper);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, className, helper.getName(), helper.getDescriptor(), isInterface);
+    }
+
+    @Override
+    public void visitEnd() {
+        for (HelperMethod helper : usedHelpers) {
+            if (declaredMethods.contains(helper.getName() + helper.getDescriptor()))
+                continue;
+
+            // Interfaces can only have private methods since Java 9
+            int access = Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC
+                    | (isInterface && majorVersion < Opcodes.V9 ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE);
+            MethodVisitor mv = super.visitMethod(access, helper.getName(), helper.getDescriptor(), null, null);
+            if (mv != null)
+                helper.write(mv, majorVersion >= Opcodes.V1_6);
+        }
+        super.visitEnd();
+    }
+
+}
@@ -0,0 +1,264 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.objectweb.asm.ClassReader;
+import org.skriptlang.addonpatcher.patcher.rules.PatchRule;
+import org.skriptlang.addonpatcher.patcher.rules.RuleTable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scans the bytecode of every method of a class for field and method instructions matched by a {@link RuleTable},
+ * without decoding the instructions with ASM.
+ * <p>
+ * Only the methods found this way have to be rewritten,
+ * all other methods can be copied as they are by a {@link org.objectweb.asm.ClassWriter}
+ * sharing the constant pool of the {@link ClassReader}.
+ * The same scan can also report every replaced instruction, without patching anything.
+ */
+public class MethodScanner {
+
+    /**
+     * Receives every instruction of a class that would be replaced by a rule.
+     */
+    @FunctionalInterface
+    public interface HitHandler {
+        void hit(String className, String methodName, String methodDescriptor, PatchRule rule);
+    }
+
+    // Constant pool tags, see https://docs.oracle.com/javase/specs/jvms/se17/html/jvms-4.html#jvms-4.4
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+
+    // Opcodes with a variable length, or referencing a member
+    private static final int WIDE = 0xC4;
+    private static final int IINC = 0x84;
+    private static final int TABLESWITCH = 0xAA;
+    private static final int LOOKUPSWITCH = 0xAB;
+    private static final int GETSTATIC = 0xB2;
+    private static final int INVOKEINTERFACE = 0xB9;
+
+    /**
+     * The length of each instruction by opcode, 0 for instructions with a variable length or invalid opcodes
+     */
+    private static final byte[] LENGTHS = new byte[256];
+
+    static {
+        fill(0x00, 0x0F, 1); // nop - dconst_1
+        fill(0x10, 0x10, 2); // bipush
+        fill(0x11, 0x11, 3); // sipush
+        fill(0x12, 0x12, 2); // ldc
+        fill(0x13, 0x14, 3); // ldc_w, ldc2_w
+        fill(0x15, 0x19, 2); // iload - aload
+        fill(0x1A, 0x35, 1); // iload_0 - saload
+        fill(0x36, 0x3A, 2); // istore - astore
+        fill(0x3B, 0x83, 1); // istore_0 - lxor
+        fill(0x84, 0x84, 3); // iinc
+        fill(0x85, 0x98, 1); // i2l - dcmpg
+        fill(0x99, 0xA8, 3); // ifeq - jsr
+        fill(0xA9, 0xA9, 2); // ret
+        fill(0xAC, 0xB1, 1); // ireturn - return
+        fill(0xB2, 0xB8, 3); // getstatic - invokestatic
+        fill(0xB9, 0xBA, 5); // invokeinterface, invokedynamic
+        fill(0xBB, 0xBB, 3); // new
+        fill(0xBC, 0xBC, 2); // newarray
+        fill(0xBD, 0xBD, 3); // anewarray
+        fill(0xBE, 0xBF, 1); // arraylength, athrow
+        fill(0xC0, 0xC1, 3); // checkcast, instanceof
+        fill(0xC2, 0xC3, 1); // monitorenter, monitorexit
+        fill(0xC5, 0xC5, 4); // multianewarray
+        fill(0xC6, 0xC7, 3); // ifnull, ifnonnull
+        fill(0xC8, 0xC9, 5); // goto_w, jsr_w
+    }
+
+    private static void fill(int from, int to, int length) {
+        for (int opcode = from; opcode <= to; opcode++) {
+            LENGTHS[opcode] = (byte) length;
+        }
+    }
+
+    private final RuleTable rules;
+
+    public MethodScanner(RuleTable rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Finds every method of the given class containing an instruction that may be replaced by one of the rules.
+     *
+     * @return the maximum amount of local variables of each found method,
+     * by the name and descriptor (concatenated) of the method
+     * @throws IllegalArgumentException if the class file can't be parsed
+     */
+    public Map<String, Integer> findMethods(ClassReader classReader) {
+        Map<String, Integer> methods = new HashMap<>();
+        scan(classReader, methods, null);
+        return methods;
+    }
+
+    /**
+     * Reports every instruction of the given class that would be replaced by one of the rules,
+     * in the order of the methods and instructions in the class file.
+     *
+     * @throws IllegalArgumentException if the class file can't be parsed
+     */
+    public void findHits(ClassReader classReader, HitHandler handler) {
+        scan(classReader, null, handler);
+    }
+
+    /**
+     * Scans every method of the class, the found methods are put in the given map if it isn't null,
+     * and every hit is reported to the given handler if it isn't null.
+     */
+    private void scan(ClassReader classReader, Map<String, Integer> methods, HitHandler handler) {
+        try {
+            scanUnsafe(classReader, methods, handler);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid class file", e);
+        }
+    }
+
+    private void scanUnsafe(ClassReader classReader, Map<String, Integer> methods, HitHandler handler) {
+        char[] buffer = new char[classReader.getMaxStringLength()];
+        Resolved resolved = new Resolved(classReader.getItemCount());
+        String className = handler == null ? null : classReader.getClassName();
+
+        int offset = classReader.header + 6;
+        offset += 2 + classReader.readUnsignedShort(offset) * 2; // interfaces
+
+        int fieldCount = classReader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            offset = skipAttributes(classReader, offset + 6);
+        }
+
+        int methodCount = classReader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodCount; i++) {
+            String name = classReader.readUTF8(offset + 2, buffer);
+            String descriptor = classReader.readUTF8(offset + 4, buffer);
+            int attributeCount = classReader.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                int length = classReader.readInt(offset + 2);
+                if ("Code".equals(classReader.readUTF8(offset, buffer))) {
+                    int codeLength = classReader.readInt(offset + 10);
+                    MethodHits hits = handler == null ? null
+                            : rule -> handler.hit(className, name, descriptor, rule);
+                    if (scanCode(classReader, offset + 14, codeLength, resolved, buffer, hits) && methods != null)
+                        methods.put(name + descriptor, classReader.readUnsignedShort(offset + 8));
+                }
+                offset += 6 + length;
+            }
+        }
+    }
+
+    /**
+     * Receives the hits within a single method
+     */
+    private interface MethodHits {
+        void hit(PatchRule rule);
+    }
+
+    /**
+     * Scans the given code for instructions replaced by a rule.
+     * Without {@link MethodHits}, this returns as soon as one is found.
+     *
+     * @return whether any instruction is replaced
+     */
+    private boolean scanCode(ClassReader classReader, int codeStart, int codeLength, Resolved resolved,
+                             char[] buffer, MethodHits hits) {
+        boolean found = false;
+        int codeEnd = codeStart + codeLength;
+        int offset = codeStart;
+        while (offset < codeEnd) {
+            int opcode = classReader.readByte(offset);
+            if (opcode >= GETSTATIC && opcode <= INVOKEINTERFACE) {
+                PatchRule rule = resolve(classReader, classReader.readUnsignedShort(offset + 1), resolved, buffer);
+                if (rule != null && rule.appliesTo(opcode)) {
+                    if (hits == null)
+                        return true;
+                    hits.hit(rule);
+                    found = true;
+                }
+            }
+
+            int length = LENGTHS[opcode];
+            if (length == 0) {
+                switch (opcode) {
+                    case WIDE:
+                        length = classReader.readByte(offset + 1) == IINC ? 6 : 4;
+                        break;
+                    case TABLESWITCH: {
+                        // Operands are aligned to 4 bytes from the start of the code
+                        int operands = offset + 1 + (3 - ((offset - codeStart) & 3));
+                        int low = classReader.readInt(operands + 4);
+                        int high = classReader.readInt(operands + 8);
+                        length = operands - offset + 12 + (high - low + 1) * 4;
+                        break;
+                    }
+                    case LOOKUPSWITCH: {
+                        int operands = offset + 1 + (3 - ((offset - codeStart) & 3));
+                        int pairCount = classReader.readInt(operands + 4);
+                        length = operands - offset + 8 + pairCount * 8;
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Invalid opcode " + opcode);
+                }
+                if (length <= 0)
+                    throw new IllegalArgumentException("Invalid switch");
+            }
+            offset += length;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the rule matching the member reference at the given constant pool index, or null if there isn't one.
+     */
+    private PatchRule resolve(ClassReader classReader, int index, Resolved resolved, char[] buffer) {
+        if (!resolved.done[index]) {
+            int offset = classReader.getItem(index);
+            int tag = classReader.readByte(offset - 1);
+            PatchRule rule = null;
+            if (tag == FIELD_REF || tag == METHOD_REF || tag == INTERFACE_METHOD_REF) {
+                String owner = classReader.readClass(offset, buffer);
+                int nameAndType = classReader.getItem(classReader.readUnsignedShort(offset + 2));
+                String name = classReader.readUTF8(nameAndType, buffer);
+                if (tag == FIELD_REF) {
+                    rule = rules.findField(owner, name);
+                } else {
+                    rule = rules.findMethod(owner, name, classReader.readUTF8(nameAndType + 2, buffer));
+                }
+            }
+            resolved.rules[index] = rule;
+            resolved.done[index] = true;
+        }
+        return resolved.rules[index];
+    }
+
+    /**
+     * The rules matching the constant pool entries of a class, resolved when first referenced
+     */
+    private static class Resolved {
+        private final boolean[] done;
+        private final PatchRule[] rules;
+
+        private Resolved(int itemCount) {
+            this.done = new boolean[itemCount];
+            this.rules = new PatchRule[itemCount];
+        }
+    }
+
+    private static int skipAttributes(ClassReader classReader, int offset) {
+        int attributeCount = classReader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < attributeCount; i++) {
+            offset += 6 + classReader.readInt(offset + 2);
+        }
+        return offset;
+    }
+
+}
@@ -12,20 +12,36 @@ import java.util.function.Function;
  */
 public class MethodWrappingVisitor extends ClassVisitor {
 
+    /**
+     * Wraps the {@link MethodVisitor} of a single method.
+     */
+    @FunctionalInterface
+    public interface Wrapper {
+        /**
+         * @return the wrapping visitor, or the given visitor itself to leave the method as it is,
+         * so a {@link org.objectweb.asm.ClassWriter} can copy it without decoding it
+         */
+        MethodVisitor wrap(String name, String descriptor, MethodVisitor mv);
+    }
+
     /**
      * The method visitor wrapping function
      */
-    private final Function<MethodVisitor, MethodVisitor> function;
+    private final Wrapper wrapper;
 
     public MethodWrappingVisitor(ClassVisitor classVisitor, Function<MethodVisitor, MethodVisitor> function) {
+        this(classVisitor, (name, descriptor, mv) -> function.apply(mv));
+    }
+
+    public MethodWrappingVisitor(ClassVisitor classVisitor, Wrapper wrapper) {
         super(Opcodes.ASM9, classVisitor);
-        this.function = function;
+        this.wrapper = wrapper;
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
         MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
-        return function.apply(mv);
+        return wrapper.wrap(name, descriptor, mv);
     }
 
 }
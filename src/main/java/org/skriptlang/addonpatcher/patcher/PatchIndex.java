@@ -0,0 +1,50 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * The {@value #ENTRY_NAME} entry added to every patched jar, listing the {@link Patcher#VERSION}
+ * the jar was patched with, followed by the names of the patched classes.
+ * Jars patched by the current version can then be skipped after reading only this entry.
+ */
+public class PatchIndex {
+
+    public static final String ENTRY_NAME = "META-INF/addonpatcher.idx";
+
+    private static final String HEADER = "AddonPatcher patch index v";
+
+    /**
+     * Creates the contents of the index entry, for the current version and the given patched classes.
+     */
+    public static byte[] create(Collection<String> patchedClasses) {
+        StringBuilder builder = new StringBuilder(HEADER).append(Patcher.VERSION).append('\n');
+        for (String patchedClass : patchedClasses) {
+            builder.append(patchedClass).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the given index entry contents were written by the current version.
+     */
+    public static boolean isCurrent(byte[] index) {
+        String header = HEADER + Patcher.VERSION;
+        String contents = new String(index, StandardCharsets.UTF_8);
+        return contents.startsWith(header)
+                && (contents.length() == header.length() || contents.charAt(header.length()) == '\n');
+    }
+
+    /**
+     * Checks whether the given jar has an index written by the current version,
+     * in which case it doesn't need any more patching.
+     */
+    public static boolean isCurrent(ZipArchive archive) throws IOException {
+        ZipArchive.Entry entry = archive.getEntry(ENTRY_NAME);
+        return entry != null && isCurrent(archive.read(entry));
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+/**
+ * A {@link ClassVisitor} which adds a {@link PatchedAttribute} of the current {@link Patcher#VERSION}
+ * to the visited class, replacing the attribute of an older version.
+ * <p>
+ * The attribute is visited after the other attributes of the class, but before its members,
+ * as required by the order in which {@link ClassVisitor} methods must be called.
+ */
+public class PatchMarkingVisitor extends ClassVisitor {
+
+    private boolean marked;
+
+    public PatchMarkingVisitor(ClassVisitor classVisitor) {
+        super(Opcodes.ASM9, classVisitor);
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        if (!PatchedAttribute.NAME.equals(attribute.type))
+            super.visitAttribute(attribute);
+    }
+
+    /**
+     * Visits the {@link PatchedAttribute}, unless it already was
+     */
+    private void mark() {
+        if (!marked) {
+            marked = true;
+            super.visitAttribute(new PatchedAttribute(Patcher.VERSION));
+        }
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+        mark();
+        super.visitNestMember(nestMember);
+    }
+
+    @Override
+    public void visitPermittedSubclass(String permittedSubclass) {
+        mark();
+        super.visitPermittedSubclass(permittedSubclass);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        mark();
+        super.visitInnerClass(name, outerName, innerName, access);
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+        mark();
+        return super.visitRecordComponent(name, descriptor, signature);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        mark();
+        return super.visitField(access, name, descriptor, signature, value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        mark();
+        return super.visitMethod(access, name, descriptor, signature, exceptions);
+    }
+
+    @Override
+    public void visitEnd() {
+        // A class without any members
+        mark();
+        super.visitEnd();
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ByteVector;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A class attribute added to every patched class, holding the {@link Patcher#VERSION} the class was patched with.
+ * Classes patched by the current version can then be skipped without looking at their code.
+ * The JVM ignores attributes it doesn't know, so this doesn't affect the class in any way.
+ */
+public class PatchedAttribute extends Attribute {
+
+    public static final String NAME = "AddonPatcherVersion";
+
+    private final int version;
+
+    public PatchedAttribute(int version) {
+        super(NAME);
+        this.version = version;
+    }
+
+    @Override
+    protected ByteVector write(ClassWriter classWriter, byte[] code, int codeLength, int maxStack, int maxLocals) {
+        return new ByteVector(2).putShort(version);
+    }
+
+    /**
+     * Returns the version of the {@link PatchedAttribute} of the given class, or -1 if it doesn't have one.
+     * Only the class attributes are read, fields and methods are skipped.
+     *
+     * @throws IllegalArgumentException if the class file can't be parsed
+     */
+    public static int getVersion(ClassReader classReader) {
+        try {
+            char[] buffer = new char[classReader.getMaxStringLength()];
+            int offset = classReader.header + 6;
+            offset += 2 + classReader.readUnsignedShort(offset) * 2; // interfaces
+
+            for (int i = 0; i < 2; i++) { // fields, then methods
+                int memberCount = classReader.readUnsignedShort(offset);
+                offset += 2;
+                for (int j = 0; j < memberCount; j++) {
+                    offset = skipAttributes(classReader, offset + 6);
+                }
+            }
+
+            int attributeCount = classReader.readUnsignedShort(offset);
+            offset += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                int length = classReader.readInt(offset + 2);
+                if (length == 2 && NAME.equals(classReader.readUTF8(offset, buffer)))
+                    return classReader.readUnsignedShort(offset + 6);
+                offset += 6 + length;
+            }
+            return -1;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid class file", e);
+        }
+    }
+
+    private static int skipAttributes(ClassReader classReader, int offset) {
+        int attributeCount = classReader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < attributeCount; i++) {
+            offset += 6 + classReader.readInt(offset + 2);
+        }
+        return offset;
+    }
+
+}
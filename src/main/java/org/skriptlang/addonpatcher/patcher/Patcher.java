@@ -3,18 +3,45 @@ package org.skriptlang.addonpatcher.patcher;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 import org.skriptlang.addonpatcher.Util;
-
+import org.skriptlang.addonpatcher.metrics.PatchEvents;
+import org.skriptlang.addonpatcher.metrics.PatcherMetrics;
+import org.skriptlang.addonpatcher.patcher.rules.ConstructorRewriteRule;
+import org.skriptlang.addonpatcher.patcher.rules.FieldEncapsulationRule;
+import org.skriptlang.addonpatcher.patcher.rules.HelperMethod;
+import org.skriptlang.addonpatcher.patcher.rules.MethodRedirectRule;
+import org.skriptlang.addonpatcher.patcher.rules.PatchSite;
+import org.skriptlang.addonpatcher.patcher.rules.RuleTable;
+import org.skriptlang.addonpatcher.zip.ZipAppender;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+import org.skriptlang.addonpatcher.zip.ZipArchiveWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -24,37 +51,387 @@ import static org.objectweb.asm.Opcodes.*;
 
 public class Patcher {
 
+    /**
+     * The version of the patches made, to be increased whenever {@link #RULES} or the bytecode they produce change.
+     * Anything cached from an older version has to be patched again.
+     */
+    public static final int VERSION = 3;
+
+    /*
+    'Imports', so that not all of these have to be typed out each time
+     */
+    private static final String SCRIPT_LOADER = "ch/njol/skript/ScriptLoader";
+    private static final String PARSER_INSTANCE = "ch/njol/skript/lang/parser/ParserInstance";
+    private static final String TRIGGER = "ch/njol/skript/lang/Trigger";
+    private static final String SKRIPT_EVENT = "ch/njol/skript/lang/SkriptEvent";
+    private static final String CONFIG = "ch/njol/skript/config/Config";
+    private static final String SCRIPT = "org/skriptlang/skript/lang/script/Script";
+
+    private static final String STRING = "java/lang/String";
+    private static final String FILE = "java/io/File";
+    private static final String LIST = "java/util/List";
+
+    /**
+     * Replacement of {@code ParserInstance#getCurrentScript()Config}, added to the classes using it
+     */
+    private static final HelperMethod CURRENT_CONFIG = new HelperMethod("addonpatcher$currentConfig",
+            "(L" + PARSER_INSTANCE + ";)L" + CONFIG + ";", 1, 2, Patcher::currentConfigBody);
+
+    /**
+     * Replacement of {@code Trigger#getScript()File}, added to the classes using it
+     */
+    private static final HelperMethod TRIGGER_FILE = new HelperMethod("addonpatcher$triggerFile",
+            "(L" + TRIGGER + ";)L" + FILE + ";", 1, 2, Patcher::triggerFileBody);
+
+    /**
+     * Conversion of the File argument of the old Trigger constructor to a Script, added to the classes using it
+     */
+    private static final HelperMethod SCRIPT_OF_FILE = new HelperMethod("addonpatcher$scriptOfFile",
+            "(L" + FILE + ";)L" + SCRIPT + ";", 1, 1, Patcher::scriptOfFileBody);
+
+    /**
+     * Every replacement made by the patcher.
+     */
+    public static final RuleTable RULES = new RuleTable(
+            /*
+            Parallel script loading (https://github.com/SkriptLang/Skript/pull/3924)
+             */
+            new FieldEncapsulationRule("currentScript", SCRIPT_LOADER,
+                    "currentScript", "L" + CONFIG + ";", "getCurrentScript", "setCurrentScript"),
+            new FieldEncapsulationRule("currentSections", SCRIPT_LOADER,
+                    "currentSections", "L" + LIST + ";", "getCurrentSections", "setCurrentSections"),
+            new FieldEncapsulationRule("currentLoops", SCRIPT_LOADER,
+                    "currentLoops", "L" + LIST + ";", "getCurrentLoops", "setCurrentLoops"),
+            new FieldEncapsulationRule("hasDelayBefore", SCRIPT_LOADER,
+                    "hasDelayBefore", "Lch/njol/util/Kleenean;", "getHasDelayBefore", "setHasDelayBefore"),
+
+            /*
+            Structure API (https://github.com/SkriptLang/Skript/pull/4108)
+             */
+            new MethodRedirectRule("getCurrentScript", PARSER_INSTANCE,
+                    "getCurrentScript", "()L" + CONFIG + ";", 0, Patcher::replaceGetCurrentScript),
+            new MethodRedirectRule("Trigger.getScript", TRIGGER,
+                    "getScript", "()L" + FILE + ";", 0, Patcher::replaceTriggerGetScript),
+            new ConstructorRewriteRule("Trigger.<init>", TRIGGER,
+                    "(L" + FILE + ";L" + STRING + ";L" + SKRIPT_EVENT + ";L" + LIST + ";)V", 0, 3, Patcher::replaceTriggerConstructor)
+    );
+
+    /**
+     * Matches classes referencing any of the owners of the members replaced by {@link #RULES}.
+     */
+    private static final ConstantPoolScanner SCANNER = new ConstantPoolScanner(RULES.getOwners());
+
+    /**
+     * Finds the methods containing instructions replaced by {@link #RULES}.
+     */
+    private static final MethodScanner METHOD_SCANNER = new MethodScanner(RULES);
+
+    /**
+     * The maximum amount of class bytes (patched or being patched) kept in memory
+     * by {@link #patchJar(ZipArchive, OutputStream, boolean, ForkJoinPool)} while waiting to be written.
+     */
+    private static final long MAX_PENDING_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * The comment set on patched entries
+     */
+    private static final String PATCHED_COMMENT = "Converted with SkriptAddonPatcher";
+
+    /**
+     * Patches the given jar file in place, returns whether it was changed.
+     * <p>
+     * The patched jar is written to a temporary file next to it, which then replaces the original jar,
+     * atomically where supported. The original jar isn't touched if it didn't need patching, or if patching failed.
+     * Jars with a {@link PatchIndex} of the current version are skipped.
+     */
+    public static boolean patchFile(File file, boolean printExceptions, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        ZipAppender.recover(file);
+        Path path = file.toPath().toAbsolutePath();
+        Path tempPath = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+        try {
+            boolean changed;
+            try (ZipArchive archive = ZipArchive.open(file);
+                 OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+                changed = !PatchIndex.isCurrent(archive)
+                        && patchJar(archive, new ZipArchiveWriter(outputStream), false, printExceptions, pool);
+            }
+
+            if (changed)
+                replaceFile(tempPath, path);
+            return changed;
+        } finally {
+            Files.deleteIfExists(tempPath);
+            PatcherMetrics.get().recordJarTime(file.getName(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Patches the given jar file in place like {@link #patchFile(File, boolean, ForkJoinPool)},
+     * but only appends the patched classes and a new central directory to the jar, instead of rewriting all of it.
+     * The unchanged entries stay where they are, the replaced classes remain in the jar unused.
+     * <p>
+     * If the process is stopped while appending, the jar is restored to its original state
+     * by the next call to this method or {@link ZipAppender#recover(File)}.
+     * Once more than half of the jar is unused, it's {@link #compactFile(File) compacted}.
+     */
+    public static boolean appendPatches(File file, boolean printExceptions, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        ZipAppender.recover(file);
+        try {
+            boolean changed;
+            try (ZipArchive archive = ZipArchive.open(file);
+                 ZipAppender appender = new ZipAppender(file, archive.size())) {
+                changed = !PatchIndex.isCurrent(archive) && patchJar(archive,
+                        new ZipArchiveWriter(appender.getOutputStream(), archive.size()), true, printExceptions, pool);
+                appender.commit();
+            }
+
+            if (changed) {
+                boolean compact;
+                try (ZipArchive archive = ZipArchive.open(file)) {
+                    compact = archive.getUnusedBytes() > archive.size() / 2;
+                }
+                if (compact)
+                    compactFile(file);
+            }
+            return changed;
+        } finally {
+            PatcherMetrics.get().recordJarTime(file.getName(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Rewrites the given zip file without the unused data left behind by {@link #appendPatches(File, boolean, ForkJoinPool)},
+     * replacing it like {@link #patchFile(File, boolean, ForkJoinPool)}. The entries aren't recompressed.
+     */
+    public static void compactFile(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Path tempPath = Files.createTempFile(path.getParent(), file.getName(), ".tmp");
+        try {
+            try (ZipArchive archive = ZipArchive.open(file);
+                 ZipArchiveWriter writer = new ZipArchiveWriter(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                for (ZipArchive.Entry entry : archive.getEntries()) {
+                    writer.copy(archive, entry);
+                }
+            }
+            replaceFile(tempPath, path);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Replaces the given file by the given temporary file, atomically where supported
+     */
+    private static void replaceFile(Path tempPath, Path path) throws IOException {
+        // Temporary files are only accessible by the owner, keep the permissions of the original jar
+        PosixFileAttributeView attributeView = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (attributeView != null)
+            Files.setPosixFilePermissions(tempPath, attributeView.readAttributes().permissions());
+
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * Patches the given {@link JarFile}, but writes the output jar
      * to the given {@link OutputStream}, which is closed afterwards.
+     * If any class was patched, a {@link PatchIndex} is added to the jar.
      */
     public static boolean patchJar(JarFile jarFile, OutputStream outputStream, boolean printExceptions) throws IOException {
-        JarOutputStream jarOutputStream = new JarOutputStream(outputStream);
+        Object event = PatchEvents.beginJarPatch();
+        Set<String> rules = PatchEvents.ruleSet(event);
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        JarOutputStream jarOutputStream = new JarOutputStream(countingOutputStream);
 
         Enumeration<JarEntry> enumeration = jarFile.entries();
-        boolean changed = false;
+        List<String> patchedClasses = new ArrayList<>();
         while (enumeration.hasMoreElements()) {
             JarEntry jarEntry = enumeration.nextElement();
+            if (jarEntry.getName().equals(PatchIndex.ENTRY_NAME))
+                continue; // Replaced by the index of this version
             try {
-                changed |= patchJarEntry(jarFile, jarOutputStream, jarEntry);
+                if (patchJarEntry(jarFile, jarOutputStream, jarEntry, rules))
+                    patchedClasses.add(jarEntry.getName());
             } catch (Exception e) {
                 if (printExceptions)
                     e.printStackTrace();
             }
         }
+        boolean changed = !patchedClasses.isEmpty();
+        if (changed) {
+            jarOutputStream.putNextEntry(new JarEntry(PatchIndex.ENTRY_NAME));
+            jarOutputStream.write(PatchIndex.create(patchedClasses));
+        }
         jarOutputStream.close();
 
+        PatchEvents.commitJarPatch(event, jarFile.getName(), jarFile.size(), new File(jarFile.getName()).length(),
+                countingOutputStream.count, changed, rules);
         return changed;
     }
 
+    /**
+     * Patches the given {@link ZipArchive} like {@link #patchJar(JarFile, OutputStream, boolean)},
+     * but reads and patches the classes on the given {@link ForkJoinPool}.
+     * The entries are still written in their original order, on the calling thread.
+     * <p>
+     * Entries that don't change are copied without decompressing and recompressing them.
+     * If any class was patched, a {@link PatchIndex} is added to the jar.
+     */
+    public static boolean patchJar(ZipArchive archive, OutputStream outputStream, boolean printExceptions,
+                                   ForkJoinPool pool) throws IOException {
+        return patchJar(archive, new ZipArchiveWriter(outputStream), false, printExceptions, pool);
+    }
+
+    /**
+     * Patches the given {@link ZipArchive} to the given {@link ZipArchiveWriter}, which is closed afterwards.
+     * If the writer appends to the archive, unchanged entries are kept instead of copied.
+     */
+    private static boolean patchJar(ZipArchive archive, ZipArchiveWriter writer, boolean append,
+                                    boolean printExceptions, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        PatcherMetrics metrics = PatcherMetrics.get();
+        Object event = PatchEvents.beginJarPatch();
+        Set<String> rules = PatchEvents.ruleSet(event);
+
+        // Entries that are read and patched, but not yet written, in jar order
+        // Bounded in count and in bytes, so huge jars aren't fully loaded into memory
+        int maxPending = pool.getParallelism() * 4;
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        long pendingBytes = 0;
+
+        List<String> patchedClasses = new ArrayList<>();
+        try {
+            for (ZipArchive.Entry entry : archive.getEntries()) {
+                if (entry.getName().equals(PatchIndex.ENTRY_NAME))
+                    continue; // Replaced by the index of this version
+                PendingEntry pendingEntry = new PendingEntry(entry);
+                if (isClass(entry.getName())) {
+                    metrics.classSeen();
+                    // FutureTask instead of ForkJoinTask, since the latter rethrows copies of exceptions
+                    pendingEntry.task = new FutureTask<>(() -> patchClassEntry(archive, entry, rules));
+                    pool.execute(pendingEntry.task);
+                    pendingEntry.bytes = estimateSize(entry);
+                }
+                pending.add(pendingEntry);
+                pendingBytes += pendingEntry.bytes;
+
+                while (pending.size() > maxPending || (pendingBytes > MAX_PENDING_BYTES && pending.size() > 1)) {
+                    PendingEntry head = pending.remove();
+                    pendingBytes -= head.bytes;
+                    writePendingEntry(archive, writer, head, append, patchedClasses, printExceptions);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writePendingEntry(archive, writer, pending.remove(), append, patchedClasses, printExceptions);
+            }
+        } finally {
+            // Only non-empty if an exception was thrown, the results aren't needed anymore
+            for (PendingEntry pendingEntry : pending) {
+                if (pendingEntry.task != null)
+                    pendingEntry.task.cancel(false);
+            }
+        }
+        boolean changed = !patchedClasses.isEmpty();
+        if (changed)
+            writer.write(PatchIndex.ENTRY_NAME, PatchIndex.create(patchedClasses));
+        writer.close();
+
+        metrics.recordJarPatch(System.nanoTime() - start, archive.size(), writer.getBytesWritten());
+        PatchEvents.commitJarPatch(event, archive.getFile().getName(), archive.getEntries().size(), archive.size(),
+                writer.getBytesWritten(), changed, rules);
+        return changed;
+    }
+
+    /**
+     * Waits for the given entry to be read and patched, and writes it to the given {@link ZipArchiveWriter}.
+     * Entries that aren't classes, or don't need patching, are copied over directly, or kept if appending.
+     * The name of the entry is added to the given list if it was patched.
+     */
+    private static void writePendingEntry(ZipArchive archive, ZipArchiveWriter writer, PendingEntry pendingEntry,
+                                          boolean append, List<String> patchedClasses,
+                                          boolean printExceptions) throws IOException {
+        try {
+            byte[] patched = null;
+            if (pendingEntry.task != null) {
+                try {
+                    patched = pendingEntry.task.get();
+                } catch (ExecutionException e) {
+                    // Rethrow the original exception, so it's handled the same as in the sequential patchJar
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw (Exception) e.getCause();
+                }
+            }
+
+            if (patched == null && append) { // Entry didn't have anything replaced, leave it where it is
+                writer.keep(pendingEntry.entry);
+            } else if (patched == null) { // Entry didn't have anything replaced
+                writer.copy(archive, pendingEntry.entry);
+            } else { // The entry needs replacing
+                writer.write(pendingEntry.entry, patched, PATCHED_COMMENT);
+                patchedClasses.add(pendingEntry.entry.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (Exception e) {
+            PatcherMetrics.get().error();
+            if (printExceptions)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads and patches a single class entry, without writing it.
+     * Returns the patched class, or null if the class doesn't need patching.
+     *
+     * @param jarRules the IDs of the applied rules are added to this set, may be null
+     */
+    private static byte[] patchClassEntry(ZipArchive archive, ZipArchive.Entry entry,
+                                          Set<String> jarRules) throws IOException {
+        PatcherMetrics metrics = PatcherMetrics.get();
+        metrics.classScanned();
+        byte[] oldBytes = archive.read(entry);
+
+        Object event = PatchEvents.beginClassTransform();
+        Set<String> rules = PatchEvents.ruleSet(event);
+        AtomicBoolean used = new AtomicBoolean();
+        byte[] newBytes = null;
+        try {
+            newBytes = patchClass(oldBytes, used, rules);
+        } finally {
+            PatchEvents.commitClassTransform(event, entry.getName(), null, archive.getFile().getName(),
+                    oldBytes, newBytes, rules);
+        }
+        if (!used.get())
+            return null;
+        if (jarRules != null && rules != null)
+            jarRules.addAll(rules);
+        metrics.classPatched();
+        return newBytes;
+    }
+
     /**
      * Patch a single jar entry
      */
     public static boolean patchJarEntry(JarFile jarFile, JarOutputStream jarOutputStream, JarEntry jarEntry) throws IOException {
+        return patchJarEntry(jarFile, jarOutputStream, jarEntry, null);
+    }
+
+    /**
+     * Patch a single jar entry, adding the IDs of the applied rules to the given set if it isn't null
+     */
+    private static boolean patchJarEntry(JarFile jarFile, JarOutputStream jarOutputStream, JarEntry jarEntry,
+                                         Set<String> jarRules) throws IOException {
         JarEntry newJarEntry = Util.newJarEntry(jarEntry);
 
         InputStream inputStream = jarFile.getInputStream(jarEntry);
-        if (!newJarEntry.getName().endsWith(".class")) {
+        if (!isClass(newJarEntry.getName())) {
             jarOutputStream.putNextEntry(newJarEntry);
             Util.transferStreams(inputStream, jarOutputStream);
             return false;
@@ -62,15 +439,25 @@ public class Patcher {
 
         byte[] oldClassBytes = Util.readAll(inputStream);
 
+        Object event = PatchEvents.beginClassTransform();
+        Set<String> rules = PatchEvents.ruleSet(event);
         AtomicBoolean used = new AtomicBoolean();
-        byte[] newBytes = patchClass(oldClassBytes, used);
+        byte[] newBytes = null;
+        try {
+            newBytes = patchClass(oldClassBytes, used, rules);
+        } finally {
+            PatchEvents.commitClassTransform(event, jarEntry.getName(), null, new File(jarFile.getName()).getName(),
+                    oldClassBytes, newBytes, rules);
+        }
+        if (jarRules != null && rules != null)
+            jarRules.addAll(rules);
 
         if (!used.get()) { // Class didn't have anything replaced
             jarOutputStream.putNextEntry(newJarEntry);
             jarOutputStream.write(oldClassBytes);
             return false;
         } else { // The entry needs replacing
-            newJarEntry.setComment("Converted with SkriptAddonPatcher");
+            newJarEntry.setComment(PATCHED_COMMENT);
             newJarEntry.setLastModifiedTime(FileTime.from(Instant.now()));
             newJarEntry.setSize(newBytes.length);
 
@@ -80,323 +467,264 @@ public class Patcher {
         }
     }
 
+    private static boolean isClass(String name) {
+        return name.endsWith(".class");
+    }
+
+    /**
+     * Estimates the memory used by a class entry while it's being patched
+     */
+    private static long estimateSize(ZipArchive.Entry entry) {
+        return entry.getCompressedSize() + entry.getSize() * 2;
+    }
+
+    /**
+     * An entry waiting to be written by {@link #patchJar(ZipArchive, OutputStream, boolean, ForkJoinPool)}
+     */
+    private static class PendingEntry {
+        private final ZipArchive.Entry entry;
+        /**
+         * The task patching this entry, resulting in null if it doesn't need patching.
+         * Null if this entry isn't a class.
+         */
+        private FutureTask<byte[]> task;
+        private long bytes;
+
+        private PendingEntry(ZipArchive.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Counts the bytes written by {@link #patchJar(JarFile, OutputStream, boolean)}
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Checks whether the given class references anything that could be patched by {@link #patchClass},
+     * by only looking at its constant pool. If this returns false, the class certainly doesn't require patching.
+     */
+    public static boolean mayNeedPatching(byte[] classBytes) {
+        return SCANNER.containsAny(classBytes);
+    }
+
     /**
      * Patches the class, given as a byte array.
      * The {@link AtomicBoolean} will be set to true when a modification is made.
+     * <p>
+     * If the class doesn't reference anything that could be patched,
+     * or already has a {@link PatchedAttribute} of the current version, the given byte array is returned as-is.
+     * Patched classes get a {@link PatchedAttribute}.
      */
     public static byte[] patchClass(byte[] classBytes, AtomicBoolean used) {
+        return patchClass(classBytes, used, null);
+    }
+
+    /**
+     * Patches the class like {@link #patchClass(byte[], AtomicBoolean)},
+     * also adding the {@link org.skriptlang.addonpatcher.patcher.rules.PatchRule#getId() IDs} of the applied rules
+     * to the given set, if it isn't null.
+     */
+    public static byte[] patchClass(byte[] classBytes, AtomicBoolean used, Set<String> appliedRules) {
+        if (!mayNeedPatching(classBytes))
+            return classBytes;
+
         ClassReader classReader = new ClassReader(classBytes);
-        // Trigger constructor adds extra stuff to the stack, so max stack size must be recomputed
-        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        if (PatchedAttribute.getVersion(classReader) == VERSION)
+            return classBytes;
+        Map<String, Integer> methods = METHOD_SCANNER.findMethods(classReader);
+        if (methods.isEmpty())
+            return classBytes;
+
+        // Shares the constant pool with the reader, so methods that aren't wrapped are copied as they are.
+        // The rules know how much they add to the stack and locals, so max sizes don't have to be recomputed
+        ClassWriter classWriter = new ClassWriter(classReader, 0);
+        HelperInjectingVisitor helpers = new HelperInjectingVisitor(classWriter);
+
+        ClassVisitor patcher = new MethodWrappingVisitor(new PatchMarkingVisitor(helpers), (name, descriptor, mv) -> {
+            Integer maxLocals = methods.get(name + descriptor);
+            return maxLocals == null ? mv : new PatchingMethodVisitor(mv, RULES, used, appliedRules, helpers, maxLocals);
+        });
+        classReader.accept(patcher, 0);
 
-        /*
-        Parallel script loading (https://github.com/SkriptLang/Skript/pull/3924)
-         */
-        ClassVisitor currentScriptReplacer = new MethodWrappingVisitor(classWriter, mv -> new FieldEncapsulatingMethodVisitor(
-                mv,
-                "ch/njol/skript/ScriptLoader",
-                "currentScript",
-                "Lch/njol/skript/config/Config;",
-                "getCurrentScript",
-                "setCurrentScript",
-                used
-        ));
-
-        ClassVisitor currentSectionsReplacer = new MethodWrappingVisitor(currentScriptReplacer, mv -> new FieldEncapsulatingMethodVisitor(
-                mv,
-                "ch/njol/skript/ScriptLoader",
-                "currentSections",
-                "Ljava/util/List;",
-                "getCurrentSections",
-                "setCurrentSections",
-                used
-        ));
-
-        ClassVisitor currentLoopsReplacer = new MethodWrappingVisitor(currentSectionsReplacer, mv -> new FieldEncapsulatingMethodVisitor(
-                mv,
-                "ch/njol/skript/ScriptLoader",
-                "currentLoops",
-                "Ljava/util/List;",
-                "getCurrentLoops",
-                "setCurrentLoops",
-                used
-        ));
-
-        ClassVisitor hasDelayBeforeReplacer = new MethodWrappingVisitor(currentLoopsReplacer, mv -> new FieldEncapsulatingMethodVisitor(
-                mv,
-                "ch/njol/skript/ScriptLoader",
-                "hasDelayBefore",
-                "Lch/njol/util/Kleenean;",
-                "getHasDelayBefore",
-                "setHasDelayBefore",
-                used
-        ));
-
-        /*
-        Structure API (https://github.com/SkriptLang/Skript/pull/4108)
-        */
-        ClassVisitor getCurrentScriptReplacer = new MethodWrappingVisitor(hasDelayBeforeReplacer, mv -> new MethodVisitor(Opcodes.ASM9, mv) {
-            @Override
-            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-                String parserInstance = "ch/njol/skript/lang/parser/ParserInstance";
-                String script = "org/skriptlang/skript/lang/script/Script";
-                String config = "ch/njol/skript/config/Config";
-                String trigger = "ch/njol/skript/lang/Trigger";
-                String file = "java/io/File";
-
-                if (owner.equals(parserInstance) && name.equals("getCurrentScript") && descriptor.equals("()L"+config+";")) {
-                    // Replace ParserInstance#getCurrentScript->Config with
-                    // Optional.of(ParserInstance.get()).filter(ParserInstance::isActive).orElse(null)->Config
-
-                    // 'imports'
-                    String object = "java/lang/Object";
-                    String string = "java/lang/String";
-                    String primitiveBoolean = "Z";
-
-                    String optional = "java/util/Optional";
-                    String function = "java/util/function/Function";
-                    String predicate = "java/util/function/Predicate";
-
-                    String lambdaMetafactory = "java/lang/invoke/LambdaMetafactory";
-                    String lookup = "java/lang/invoke/MethodHandles$Lookup";
-                    String methodType = "java/lang/invoke/MethodType";
-                    String methodHandle = "java/lang/invoke/MethodHandle";
-                    String callSite = "java/lang/invoke/CallSite";
-
-                    // Wrap ParserInstance in optional
-                    super.visitMethodInsn(INVOKESTATIC, optional, "ofNullable", "(L"+object+";)L"+optional+";", false);
-
-                    // Handle for the meta factory (I got most of these by looking what
-                    // ASMs ClassReader gave me for a regularly compiled class)
-                    Handle metafactoryHandle = new Handle(
-                            H_INVOKESTATIC,
-                            lambdaMetafactory,
-                            "metafactory",
-                            "(L"+lookup+";L"+string+";L"+methodType+";L"+methodType+";L"+methodHandle+";L"+methodType+";)L"+callSite+";",
-                            false
-                    );
-
-                    // Method reference ParseInstance::isActive
-                    visitInvokeDynamicInsn(
-                            "test", "()L" + predicate + ";",
-                            metafactoryHandle,
-                            // Descriptor of Predicate#test
-                            Type.getMethodType("(L"+object+";)"+primitiveBoolean),
-                            // Handle for ParserInstance#isActive
-                            new Handle(
-                                    H_INVOKEVIRTUAL,
-                                    parserInstance,
-                                    "isActive",
-                                    "()"+primitiveBoolean,
-                                    false
-                            ),
-                            // Descriptor of ParserInstance#isActive
-                            Type.getMethodType("(L"+parserInstance+";)"+primitiveBoolean)
-                    );
-                    // Filter the Optional with ParserInstance#isActive
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "filter", "(L"+predicate+";)L"+optional+";", false);
-
-                    // Method reference ParserInstance::getCurrentScript
-                    visitInvokeDynamicInsn(
-                            "apply", "()L" + function + ";",
-                            metafactoryHandle,
-                            // Descriptor of Function#apply
-                            Type.getMethodType("(L"+object+";)L"+object+";"),
-                            // Handle for ParserInstance#getCurrentScript
-                            new Handle(
-                                    H_INVOKEVIRTUAL,
-                                    parserInstance,
-                                    "getCurrentScript",
-                                    "()L"+script+";",
-                                    false
-                            ),
-                            // Descriptor of ParserInstance#getCurrentScript
-                            Type.getMethodType("(L"+parserInstance+";)L"+script+";")
-                    );
-                    // Map the Optional with ParserInstance#getCurrentScript
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "map", "(L"+function+";)L"+optional+";", false);
-
-                    // Method reference Script::getConfig
-                    visitInvokeDynamicInsn(
-                            "apply", "()L" + function + ";",
-                            metafactoryHandle,
-                            // Descriptor of Function#apply
-                            Type.getMethodType("(L"+object+";)L"+object+";"),
-                            // Handle for Script#getConfig
-                            new Handle(
-                                    H_INVOKEVIRTUAL,
-                                    script,
-                                    "getConfig",
-                                    "()L"+config+";",
-                                    false
-                            ),
-                            // Descriptor of Script#getConfig
-                            Type.getMethodType("(L"+script+";)L"+config+";")
-                    );
-                    // Map the Optional with Script#getConfig
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "map", "(L"+function+";)L"+optional+";", false);
-
-                    // Invoke Optional#orElse(null) and cast to Config
-                    visitInsn(ACONST_NULL);
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "orElse", "(L"+object+";)L"+object+";", false);
-                    visitTypeInsn(CHECKCAST, config);
-
-                    used.set(true);
-
-                    return;
-                }
+        return classWriter.toByteArray();
+    }
 
-                if (owner.equals(trigger) && name.equals("getScript") && descriptor.equals("()L"+file+";")) {
-                    // Replace Trigger#getScript->File with Trigger#getScript->Script#getConfig->Config#getFile->File
-                    super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, trigger, "getScript", "()L"+script+";", false);
-                    super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, script, "getConfig", "()L"+config+";", false);
-                    super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, config, "getFile", "()L"+file+";", false);
-                    used.set(true);
+    /**
+     * Reports every instruction of the given class that {@link #patchClass} would replace,
+     * without building the patched class. Classes patched by the current version have no hits.
+     *
+     * @throws IllegalArgumentException if the class file can't be parsed
+     */
+    public static void scanClass(byte[] classBytes, MethodScanner.HitHandler handler) {
+        if (!mayNeedPatching(classBytes))
+            return;
 
-                    return;
-                }
+        ClassReader classReader = new ClassReader(classBytes);
+        if (PatchedAttribute.getVersion(classReader) != VERSION)
+            METHOD_SCANNER.findHits(classReader, handler);
+    }
 
-                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    /**
+     * Reports every instruction of the classes of the given jar that {@link #patchJar} would replace,
+     * like {@link #scanClass}. Nothing is written, and jars with a {@link PatchIndex} of the current version are skipped.
+     */
+    public static void scanJar(ZipArchive archive, MethodScanner.HitHandler handler,
+                               boolean printExceptions) throws IOException {
+        if (PatchIndex.isCurrent(archive))
+            return;
+
+        for (ZipArchive.Entry entry : archive.getEntries()) {
+            if (!isClass(entry.getName()))
+                continue;
+            try {
+                scanClass(archive.read(entry), handler);
+            } catch (Exception e) {
+                if (printExceptions)
+                    e.printStackTrace();
             }
-        });
+        }
+    }
 
-        ClassVisitor triggerConstructorReplacer = new MethodWrappingVisitor(getCurrentScriptReplacer, mv -> new MethodVisitor(Opcodes.ASM9, mv) {
-            @Override
-            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-                // 'imports'
-                // so that I don't have to type all of them out each time
-                String trigger = "ch/njol/skript/lang/Trigger";
-                String file = "java/io/File";
-                String string = "java/lang/String";
-                String skriptEvent = "ch/njol/skript/lang/SkriptEvent";
-                String list = "java/util/List";
-
-                String script = "org/skriptlang/skript/lang/script/Script";
-
-                String scriptLoader = "ch/njol/skript/ScriptLoader";
-                String object = "java/lang/Object";
-                String optional = "java/util/Optional";
-                String function = "java/util/function/Function";
-
-                String lambdaMetafactory = "java/lang/invoke/LambdaMetafactory";
-                String lookup = "java/lang/invoke/MethodHandles$Lookup";
-                String methodType = "java/lang/invoke/MethodType";
-                String methodHandle = "java/lang/invoke/MethodHandle";
-                String callSite = "java/lang/invoke/CallSite";
-
-                /*
-                For a (hopefully) readable overview of this bytecode, see `bytecode Trigger constructor overview.txt`
-                 */
-
-                if (owner.equals(trigger) && name.equals("<init>") && descriptor.equals(
-                        "(L"+file+";L"+string+";L"+skriptEvent+";L"+list+";)V"
-                )) {
-                    // Create Object array of length 3
-                    visitInsn(ICONST_3);
-                    visitTypeInsn(ANEWARRAY, object);
-
-                    // Back up other arguments in array
-                    for (int i = 2; i >= 0; i--) {
-                        visitInsn(DUP_X1);
-                        visitInsn(SWAP);
-                        visitLdcInsn(i);
-                        visitInsn(SWAP);
-                        visitInsn(AASTORE);
-                    }
-
-                    // Swap backup array and file arg
-                    visitInsn(SWAP);
-
-                    // File arg now on top
-
-                    // Wrap in Optional
-                    visitMethodInsn(INVOKESTATIC, optional, "ofNullable", "(L"+object+";)L"+optional+";", false);
-
-                    // Method reference ScriptLoader::getScript
-                    visitInvokeDynamicInsn(
-                            "apply", "()L" + function + ";",
-                            // Handle for the meta factory (I got most of these by looking what
-                            // ASMs ClassReader gave me for a regularly compiled class
-                            new Handle(
-                                    H_INVOKESTATIC,
-                                    lambdaMetafactory,
-                                    "metafactory",
-                                    "(L"+lookup+";L"+string+";L"+methodType+";L"+methodType+";L"+methodHandle+";L"+methodType+";)L"+callSite+";",
-                                    false
-                            ),
-                            // Descriptor of Function#apply
-                            Type.getMethodType("(L"+object+";)L"+object+";"),
-                            // Handle for ScriptLoader.getScript
-                            new Handle(
-                                    H_INVOKESTATIC,
-                                    scriptLoader,
-                                    "getScript",
-                                    "(L"+file+";)L"+script+";",
-                                    false
-                            ),
-                            // Descriptor of ScriptLoader.getScript
-                            Type.getMethodType("(L"+file+";)L"+script+";")
-                    );
-                    // Map the Optional with ScriptLoader#getScript
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "map", "(L"+function+";)L"+optional+";", false);
-
-                    // Invoke Optional#orElse(null) and cast to Script
-                    visitInsn(ACONST_NULL);
-                    visitMethodInsn(INVOKEVIRTUAL, optional, "orElse", "(L"+object+";)L"+object+";", false);
-                    visitTypeInsn(CHECKCAST, script);
-
-                    // We now have a Script on top of the stack
-
-                    visitInsn(SWAP);
-
-                    // Restore the backed up values
-                    for (int i = 0; i <= 2; i++) {
-                        visitInsn(DUP);
-                        visitLdcInsn(i);
-                        visitInsn(AALOAD);
-
-                        // Cast to appropriate type
-                        String cast;
-                        switch (i) {
-                            case 0: {
-                                cast = string;
-                                break;
-                            }
-                            case 1: {
-                                cast = skriptEvent;
-                                break;
-                            }
-                            default: {
-                                cast = list;
-                                break;
-                            }
-                        }
-                        visitTypeInsn(CHECKCAST, cast);
-
-                        visitInsn(SWAP);
-                    }
-
-                    // Pop the array from stack
-                    visitInsn(POP);
-
-                    // Finally, invoke new Trigger constructor
-                    visitMethodInsn(INVOKESPECIAL, trigger, "<init>",
-                            "(L"+script+";L"+string+";L"+skriptEvent+";L"+list+";)V",
-                            false
-                    );
-
-                    used.set(true);
-
-                    return;
-                }
+    /**
+     * Replaces ParserInstance#getCurrentScript->Config with a call to {@link #CURRENT_CONFIG}
+     */
+    private static void replaceGetCurrentScript(MethodVisitor mv, PatchSite site) {
+        site.invokeHelper(mv, CURRENT_CONFIG);
+    }
 
-                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-            }
-        });
+    /**
+     * The body of {@link #CURRENT_CONFIG}, equivalent to
+     * <pre>
+     * if (parserInstance == null || !parserInstance.isActive())
+     *     return null;
+     * Script script = parserInstance.getCurrentScript();
+     * return script == null ? null : script.getConfig();
+     * </pre>
+     */
+    private static void currentConfigBody(MethodVisitor mv, boolean frames) {
+        Label returnNull = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitJumpInsn(IFNULL, returnNull);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PARSER_INSTANCE, "isActive", "()Z", false);
+        mv.visitJumpInsn(IFEQ, returnNull);
+
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, PARSER_INSTANCE, "getCurrentScript", "()L"+SCRIPT+";", false);
+        mv.visitVarInsn(ASTORE, 1);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitJumpInsn(IFNULL, returnNull);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKEVIRTUAL, SCRIPT, "getConfig", "()L"+CONFIG+";", false);
+        mv.visitInsn(ARETURN);
+
+        mv.visitLabel(returnNull);
+        if (frames)
+            mv.visitFrame(F_SAME, 0, null, 0, null);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+    }
 
-        classReader.accept(triggerConstructorReplacer, 0);
+    /**
+     * Replaces Trigger#getScript->File with a call to {@link #TRIGGER_FILE}
+     */
+    private static void replaceTriggerGetScript(MethodVisitor mv, PatchSite site) {
+        site.invokeHelper(mv, TRIGGER_FILE);
+    }
 
-        return classWriter.toByteArray();
+    /**
+     * The body of {@link #TRIGGER_FILE}, equivalent to
+     * <pre>
+     * Script script = trigger.getScript();
+     * return script == null ? null : script.getConfig().getFile();
+     * </pre>
+     */
+    private static void triggerFileBody(MethodVisitor mv, boolean frames) {
+        Label returnNull = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, TRIGGER, "getScript", "()L"+SCRIPT+";", false);
+        mv.visitVarInsn(ASTORE, 1);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitJumpInsn(IFNULL, returnNull);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKEVIRTUAL, SCRIPT, "getConfig", "()L"+CONFIG+";", false);
+        mv.visitMethodInsn(INVOKEVIRTUAL, CONFIG, "getFile", "()L"+FILE+";", false);
+        mv.visitInsn(ARETURN);
+
+        mv.visitLabel(returnNull);
+        if (frames)
+            mv.visitFrame(F_SAME, 0, null, 0, null);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+    }
+
+    /**
+     * Replaces Trigger#<init>(File, String, SkriptEvent, List) with Trigger#<init>(Script, String, SkriptEvent, List),
+     * converting the File to a Script with {@link #SCRIPT_OF_FILE}.
+     * <p>
+     * For a (hopefully) readable overview of this bytecode, see `bytecode Trigger constructor overview.txt`
+     */
+    private static void replaceTriggerConstructor(MethodVisitor mv, PatchSite site) {
+        // Move the arguments after the File to unused local variables
+        int local = site.getFirstFreeLocal();
+        mv.visitVarInsn(ASTORE, local + 2);
+        mv.visitVarInsn(ASTORE, local + 1);
+        mv.visitVarInsn(ASTORE, local);
+
+        // File arg now on top, convert it
+        site.invokeHelper(mv, SCRIPT_OF_FILE);
+
+        // Restore the other arguments
+        mv.visitVarInsn(ALOAD, local);
+        mv.visitVarInsn(ALOAD, local + 1);
+        mv.visitVarInsn(ALOAD, local + 2);
+
+        // Finally, invoke new Trigger constructor
+        mv.visitMethodInsn(INVOKESPECIAL, TRIGGER, "<init>",
+                "(L"+SCRIPT+";L"+STRING+";L"+SKRIPT_EVENT+";L"+LIST+";)V",
+                false
+        );
     }
 
+    /**
+     * The body of {@link #SCRIPT_OF_FILE}, equivalent to
+     * <pre>
+     * return file == null ? null : ScriptLoader.getScript(file);
+     * </pre>
+     */
+    private static void scriptOfFileBody(MethodVisitor mv, boolean frames) {
+        Label nonNull = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitJumpInsn(IFNONNULL, nonNull);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+
+        mv.visitLabel(nonNull);
+        if (frames)
+            mv.visitFrame(F_SAME, 0, null, 0, null);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESTATIC, SCRIPT_LOADER, "getScript", "(L"+FILE+";)L"+SCRIPT+";", false);
+        mv.visitInsn(ARETURN);
+    }
+
+
 }
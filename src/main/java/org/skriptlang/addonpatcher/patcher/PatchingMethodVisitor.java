@@ -0,0 +1,98 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.skriptlang.addonpatcher.patcher.rules.FieldEncapsulationRule;
+import org.skriptlang.addonpatcher.patcher.rules.HelperMethod;
+import org.skriptlang.addonpatcher.patcher.rules.MethodRedirectRule;
+import org.skriptlang.addonpatcher.patcher.rules.PatchRule;
+import org.skriptlang.addonpatcher.patcher.rules.PatchSite;
+import org.skriptlang.addonpatcher.patcher.rules.RuleTable;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link MethodVisitor} which applies every rule of a {@link RuleTable} in a single pass.
+ * Replacements are written directly to the wrapped visitor, so they aren't matched against the rules again.
+ * <p>
+ * The maximum stack size and amount of local variables are increased by the largest
+ * {@link PatchRule#getMaxStackGrowth()} and {@link PatchRule#getMaxLocalsGrowth()} of the applied rules,
+ * so the wrapped visitor doesn't have to compute them.
+ */
+public class PatchingMethodVisitor extends MethodVisitor implements PatchSite {
+
+    private final RuleTable rules;
+    /**
+     * Set to true when a rule was applied.
+     */
+    private final AtomicBoolean used;
+    /**
+     * The IDs of the applied rules are added to this set, may be null
+     */
+    private final Set<String> appliedRules;
+    /**
+     * Adds the helpers used by replacements to the class
+     */
+    private final HelperInjectingVisitor helpers;
+    /**
+     * The maximum amount of local variables of the method before patching
+     */
+    private final int maxLocals;
+    private int maxStackGrowth;
+    private int maxLocalsGrowth;
+
+    public PatchingMethodVisitor(MethodVisitor methodVisitor, RuleTable rules, AtomicBoolean used,
+                                 Set<String> appliedRules, HelperInjectingVisitor helpers, int maxLocals) {
+        super(Opcodes.ASM9, methodVisitor);
+        this.rules = rules;
+        this.used = used;
+        this.appliedRules = appliedRules;
+        this.helpers = helpers;
+        this.maxLocals = maxLocals;
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        FieldEncapsulationRule rule = rules.findField(owner, name);
+        if (rule != null && mv != null && rule.replace(mv, opcode, this)) {
+            applied(rule);
+            return;
+        }
+        super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        MethodRedirectRule rule = rules.findMethod(owner, name, descriptor);
+        if (rule != null && mv != null && rule.replace(mv, opcode, this)) {
+            applied(rule);
+            return;
+        }
+        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public int getFirstFreeLocal() {
+        return maxLocals;
+    }
+
+    @Override
+    public void invokeHelper(MethodVisitor mv, HelperMethod helper) {
+        helpers.invokeHelper(mv, helper);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        super.visitMaxs(maxStack + maxStackGrowth, maxLocals + maxLocalsGrowth);
+    }
+
+    private void applied(PatchRule rule) {
+        used.set(true);
+        if (appliedRules != null)
+            appliedRules.add(rule.getId());
+        maxStackGrowth = Math.max(maxStackGrowth, rule.getMaxStackGrowth());
+        maxLocalsGrowth = Math.max(maxLocalsGrowth, rule.getMaxLocalsGrowth());
+    }
+
+}
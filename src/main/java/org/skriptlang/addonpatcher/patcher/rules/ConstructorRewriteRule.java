@@ -0,0 +1,15 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+/**
+ * A {@link MethodRedirectRule} which replaces every invocation of a constructor.
+ * The replacement is written after the {@code NEW} and {@code DUP} instructions and the arguments,
+ * so it should end with an {@code INVOKESPECIAL} of another constructor of the same class.
+ */
+public class ConstructorRewriteRule extends MethodRedirectRule {
+
+    public ConstructorRewriteRule(String id, String owner, String descriptor,
+                                  int maxStackGrowth, int maxLocalsGrowth, Replacement replacement) {
+        super(id, owner, "<init>", descriptor, maxStackGrowth, maxLocalsGrowth, replacement);
+    }
+
+}
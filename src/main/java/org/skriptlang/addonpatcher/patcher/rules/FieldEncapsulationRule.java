@@ -0,0 +1,47 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A {@link PatchRule} which encapsulates a static field using a getter and setter.
+ * The getter and setter must be static and in the same class as the static field.
+ */
+public class FieldEncapsulationRule extends PatchRule {
+
+    private final String getterName;
+    private final String getterDescriptor;
+    private final String setterName;
+    private final String setterDescriptor;
+
+    public FieldEncapsulationRule(String id,
+                                  String fieldOwner,
+                                  String fieldName,
+                                  String fieldType,
+                                  String getterName,
+                                  String setterName) {
+        super(id, fieldOwner, fieldName);
+        this.getterName = getterName;
+        this.getterDescriptor = "()" + fieldType;
+        this.setterName = setterName;
+        this.setterDescriptor = "(" + fieldType + ")V";
+    }
+
+    @Override
+    public boolean appliesTo(int opcode) {
+        return opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC;
+    }
+
+    @Override
+    public boolean replace(MethodVisitor mv, int opcode, PatchSite site) {
+        if (opcode == Opcodes.GETSTATIC) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, getOwner(), getterName, getterDescriptor, false);
+            return true;
+        } else if (opcode == Opcodes.PUTSTATIC) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, getOwner(), setterName, setterDescriptor, false);
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A private static method added to every class that uses it,
+ * so replacements can call it instead of repeating its code at every call site.
+ *
+ * @see PatchSite#invokeHelper(MethodVisitor, HelperMethod)
+ */
+public class HelperMethod {
+
+    /**
+     * Writes the instructions of a helper method.
+     */
+    @FunctionalInterface
+    public interface Body {
+        /**
+         * @param frames whether stack map frames must be written, which is the case for class version 50 and up
+         */
+        void emit(MethodVisitor mv, boolean frames);
+    }
+
+    private final String name;
+    private final String descriptor;
+    private final int maxStack;
+    private final int maxLocals;
+    private final Body body;
+
+    public HelperMethod(String name, String descriptor, int maxStack, int maxLocals, Body body) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Writes the code of this helper to the given {@link MethodVisitor} of the method, and ends the method.
+     */
+    public void write(MethodVisitor mv, boolean frames) {
+        mv.visitCode();
+        body.emit(mv, frames);
+        mv.visitMaxs(maxStack, maxLocals);
+        mv.visitEnd();
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A {@link PatchRule} which replaces every invocation of a method with the given {@link Replacement}.
+ */
+public class MethodRedirectRule extends PatchRule {
+
+    private final String descriptor;
+    private final Replacement replacement;
+    private final int maxStackGrowth;
+    private final int maxLocalsGrowth;
+
+    /**
+     * @param maxStackGrowth see {@link #getMaxStackGrowth()}
+     */
+    public MethodRedirectRule(String id, String owner, String name, String descriptor,
+                              int maxStackGrowth, Replacement replacement) {
+        this(id, owner, name, descriptor, maxStackGrowth, 0, replacement);
+    }
+
+    /**
+     * @param maxStackGrowth see {@link #getMaxStackGrowth()}
+     * @param maxLocalsGrowth see {@link #getMaxLocalsGrowth()}
+     */
+    public MethodRedirectRule(String id, String owner, String name, String descriptor,
+                              int maxStackGrowth, int maxLocalsGrowth, Replacement replacement) {
+        super(id, owner, name);
+        this.descriptor = descriptor;
+        this.maxStackGrowth = maxStackGrowth;
+        this.maxLocalsGrowth = maxLocalsGrowth;
+        this.replacement = replacement;
+    }
+
+    /**
+     * The descriptor of the replaced method.
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public int getMaxStackGrowth() {
+        return maxStackGrowth;
+    }
+
+    @Override
+    public int getMaxLocalsGrowth() {
+        return maxLocalsGrowth;
+    }
+
+    @Override
+    public boolean replace(MethodVisitor mv, int opcode, PatchSite site) {
+        replacement.emit(mv, site);
+        return true;
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A single replacement of a field or method instruction,
+ * matched by the owner, name and (for methods) descriptor of the referenced member.
+ *
+ * @see RuleTable
+ */
+public abstract class PatchRule {
+
+    private final String id;
+    private final String owner;
+    private final String name;
+
+    protected PatchRule(String id, String owner, String name) {
+        this.id = id;
+        this.owner = owner;
+        this.name = name;
+    }
+
+    /**
+     * A short identifier of this rule, used in logs and reports.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The internal name of the class owning the replaced member.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * The name of the replaced member.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The maximum amount of stack slots the replacement uses on top of those used by the replaced instruction,
+     * which is added to the maximum stack size of methods containing the replacement.
+     */
+    public int getMaxStackGrowth() {
+        return 0;
+    }
+
+    /**
+     * The amount of local variable slots the replacement uses, see {@link PatchSite#getFirstFreeLocal()}.
+     */
+    public int getMaxLocalsGrowth() {
+        return 0;
+    }
+
+    /**
+     * Whether a matched instruction with the given opcode is replaced by this rule,
+     * in which case {@link #replace} returns true.
+     */
+    public boolean appliesTo(int opcode) {
+        return true;
+    }
+
+    /**
+     * Writes the replacement of a matched instruction to the given {@link MethodVisitor}.
+     *
+     * @param opcode the opcode of the matched instruction
+     * @param site the method the instruction is in
+     * @return whether a replacement was written, if false the original instruction should be kept
+     */
+    public abstract boolean replace(MethodVisitor mv, int opcode, PatchSite site);
+
+}
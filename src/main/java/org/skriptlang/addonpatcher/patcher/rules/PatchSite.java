@@ -0,0 +1,22 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * The method a {@link PatchRule} writes its replacement in.
+ */
+public interface PatchSite {
+
+    /**
+     * The first local variable slot not used by the method.
+     * A replacement may use the slots from here up to {@link PatchRule#getMaxLocalsGrowth()} of its rule,
+     * but they don't keep their value after the replacement.
+     */
+    int getFirstFreeLocal();
+
+    /**
+     * Writes an invocation of the given helper, which is added to the class being patched.
+     */
+    void invokeHelper(MethodVisitor mv, HelperMethod helper);
+
+}
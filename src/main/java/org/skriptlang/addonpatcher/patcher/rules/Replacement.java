@@ -0,0 +1,13 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Writes the bytecode replacing a matched method instruction.
+ */
+@FunctionalInterface
+public interface Replacement {
+
+    void emit(MethodVisitor mv, PatchSite site);
+
+}
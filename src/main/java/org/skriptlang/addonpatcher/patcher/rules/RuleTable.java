@@ -0,0 +1,84 @@
+package org.skriptlang.addonpatcher.patcher.rules;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of {@link PatchRule}s, indexed by owner and name of the replaced member.
+ * Lookups don't allocate, so they can be done for every instruction of every patched class.
+ */
+public class RuleTable {
+
+    private final Map<String, Map<String, FieldEncapsulationRule>> fieldRules = new HashMap<>();
+    private final Map<String, Map<String, MethodRedirectRule[]>> methodRules = new HashMap<>();
+    private final List<PatchRule> rules;
+    private final Set<String> owners = new LinkedHashSet<>();
+
+    public RuleTable(PatchRule... rules) {
+        this.rules = Arrays.asList(rules.clone());
+
+        for (PatchRule rule : rules) {
+            owners.add(rule.getOwner());
+
+            if (rule instanceof FieldEncapsulationRule) {
+                Map<String, FieldEncapsulationRule> byName =
+                        fieldRules.computeIfAbsent(rule.getOwner(), k -> new HashMap<>());
+                if (byName.put(rule.getName(), (FieldEncapsulationRule) rule) != null)
+                    throw new IllegalArgumentException("Duplicate rule for field " + rule.getOwner() + "." + rule.getName());
+            } else if (rule instanceof MethodRedirectRule) {
+                Map<String, MethodRedirectRule[]> byName =
+                        methodRules.computeIfAbsent(rule.getOwner(), k -> new HashMap<>());
+                MethodRedirectRule[] old = byName.get(rule.getName());
+                MethodRedirectRule[] rulesByName = old == null ? new MethodRedirectRule[1] : Arrays.copyOf(old, old.length + 1);
+                rulesByName[rulesByName.length - 1] = (MethodRedirectRule) rule;
+                byName.put(rule.getName(), rulesByName);
+            } else {
+                throw new IllegalArgumentException("Unknown rule type: " + rule.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Returns the rule replacing the given field, or null if there is none.
+     */
+    public FieldEncapsulationRule findField(String owner, String name) {
+        Map<String, FieldEncapsulationRule> byName = fieldRules.get(owner);
+        return byName == null ? null : byName.get(name);
+    }
+
+    /**
+     * Returns the rule replacing the given method, or null if there is none.
+     */
+    public MethodRedirectRule findMethod(String owner, String name, String descriptor) {
+        Map<String, MethodRedirectRule[]> byName = methodRules.get(owner);
+        if (byName == null)
+            return null;
+        MethodRedirectRule[] rulesByName = byName.get(name);
+        if (rulesByName == null)
+            return null;
+        for (MethodRedirectRule rule : rulesByName) {
+            if (rule.getDescriptor().equals(descriptor))
+                return rule;
+        }
+        return null;
+    }
+
+    /**
+     * All rules in this table, in the order they were given.
+     */
+    public List<PatchRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * The internal names of all classes owning a replaced member.
+     */
+    public String[] getOwners() {
+        return owners.toArray(new String[0]);
+    }
+
+}
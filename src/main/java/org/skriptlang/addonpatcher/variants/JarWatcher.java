@@ -0,0 +1,235 @@
+package org.skriptlang.addonpatcher.variants;
+
+import org.skriptlang.addonpatcher.patcher.BatchPatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory, and patches the jars in it whenever they're added or changed.
+ * <p>
+ * A jar is only patched once it hasn't changed for the debounce time, so jars that are still being copied
+ * aren't read halfway. The size and modification time of every jar are remembered after it's handled,
+ * so jars that didn't change since (including jars that were just replaced by the patcher) aren't opened again.
+ */
+public class JarWatcher {
+
+    /**
+     * The time a jar must stay unchanged before it's patched, unless configured otherwise
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 1000;
+
+    private final Path directory;
+    private final int threads;
+    private final BatchPatcher.JarPatcher patcher;
+    private final BatchPatcher.ResultHandler handler;
+    private final long debounceNanos;
+
+    /**
+     * The state of each jar after it was last handled
+     */
+    private final Map<Path, JarState> handled = new HashMap<>();
+    /**
+     * Jars that changed since they were last handled, with the state they had when they last changed
+     */
+    private final Map<Path, PendingJar> pending = new HashMap<>();
+
+    public JarWatcher(File directory, int threads, BatchPatcher.JarPatcher patcher,
+                      BatchPatcher.ResultHandler handler, long debounceMillis) {
+        this.directory = directory.toPath().toAbsolutePath();
+        this.threads = threads;
+        this.patcher = patcher;
+        this.handler = handler;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    }
+
+    /**
+     * Patches the jars currently in the directory, and then keeps patching new or changed jars
+     * until the thread is interrupted.
+     * The {@link BatchPatcher.ResultHandler} is called on the calling thread.
+     *
+     * @throws IOException if the directory can't be watched (anymore)
+     */
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            scan();
+
+            while (true) {
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(TimeUnit.NANOSECONDS.toMillis(debounceNanos), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) { // Events were lost, look at everything again
+                            scan();
+                            continue;
+                        }
+
+                        Path path = directory.resolve((Path) event.context());
+                        if (!isJar(path))
+                            continue;
+                        if (event.kind() == ENTRY_DELETE) {
+                            handled.remove(path);
+                            pending.remove(path);
+                        } else {
+                            changed(path);
+                        }
+                    }
+                    if (!key.reset())
+                        throw new IOException("The directory " + directory + " can no longer be watched");
+                }
+
+                patchSettled();
+            }
+        }
+    }
+
+    /**
+     * Marks every jar in the directory that changed since it was last handled
+     */
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.jar")) {
+            for (Path path : stream) {
+                changed(path);
+            }
+        }
+    }
+
+    private void changed(Path path) throws IOException {
+        JarState state = JarState.of(path);
+        if (state == null || state.equals(handled.get(path))) {
+            pending.remove(path);
+            return;
+        }
+
+        PendingJar pendingJar = pending.get(path);
+        if (pendingJar == null || !state.equals(pendingJar.state))
+            pending.put(path, new PendingJar(state, System.nanoTime()));
+    }
+
+    /**
+     * Patches the pending jars that haven't changed for the debounce time
+     */
+    private void patchSettled() throws IOException {
+        long now = System.nanoTime();
+        List<File> settled = new ArrayList<>();
+        Map<File, JarState> states = new HashMap<>();
+        Iterator<Map.Entry<Path, PendingJar>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingJar> entry = iterator.next();
+            PendingJar pendingJar = entry.getValue();
+            if (now - pendingJar.since < debounceNanos)
+                continue;
+
+            // Not every change causes an event right away, so check again
+            JarState state = JarState.of(entry.getKey());
+            if (state == null) {
+                iterator.remove();
+            } else if (!state.equals(pendingJar.state)) {
+                entry.setValue(new PendingJar(state, now));
+            } else {
+                iterator.remove();
+                File file = entry.getKey().toFile();
+                settled.add(file);
+                states.put(file, state);
+            }
+        }
+        if (settled.isEmpty())
+            return;
+        settled.sort(null);
+
+        BatchPatcher.patchAll(settled, threads, patcher, (file, changed, exception) -> {
+            Path path = file.toPath();
+            try {
+                JarState state = JarState.of(path);
+                if (exception != null && state != null && !state.equals(states.get(file))) {
+                    // Changed while it was being patched, try again once it settles
+                    pending.put(path, new PendingJar(state, System.nanoTime()));
+                    return;
+                }
+                if (state == null) {
+                    handled.remove(path);
+                } else {
+                    handled.put(path, state);
+                }
+            } catch (IOException e) {
+                handled.remove(path);
+            }
+            handler.handle(file, changed, exception);
+        });
+    }
+
+    private static boolean isJar(Path path) {
+        return path.getFileName().toString().endsWith(".jar");
+    }
+
+    /**
+     * The size and modification time of a jar, which change whenever the jar is written to
+     */
+    private static class JarState {
+        private final long size;
+        private final long lastModified;
+
+        private JarState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the current state of the given jar, or null if it doesn't exist (anymore)
+         */
+        private static JarState of(Path path) throws IOException {
+            try {
+                return new JarState(Files.size(path), Files.getLastModifiedTime(path).toMillis());
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof JarState))
+                return false;
+            JarState other = (JarState) o;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModified);
+        }
+    }
+
+    private static class PendingJar {
+        private final JarState state;
+        /**
+         * {@link System#nanoTime()} of when the jar was last seen changing
+         */
+        private final long since;
+
+        private PendingJar(JarState state, long since) {
+            this.state = state;
+            this.since = since;
+        }
+    }
+
+}
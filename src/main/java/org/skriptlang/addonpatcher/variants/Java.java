@@ -1,50 +1,144 @@
 package org.skriptlang.addonpatcher.variants;
 
+import org.skriptlang.addonpatcher.patcher.BatchPatcher;
 import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.zip.ZipAppender;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.jar.JarFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Java {
 
+    /**
+     * The pool used to patch the classes of a jar in parallel
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("Usage: java -jar SkriptAddonPatcher.jar <addon jar>");
+        int threads = BatchPatcher.defaultThreads();
+        boolean all = false;
+        boolean watch = false;
+        boolean scan = false;
+        boolean append = false;
+        int argIndex = 0;
+        while (argIndex < args.length) {
+            if (args[argIndex].equals("--threads") && argIndex + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[argIndex + 1]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.err.println("The amount of threads must be a positive number");
+                    System.exit(-1);
+                }
+                argIndex += 2;
+            } else if (args[argIndex].equals("--all")) {
+                all = true;
+                argIndex++;
+            } else if (args[argIndex].equals("--watch")) {
+                watch = true;
+                argIndex++;
+            } else if (args[argIndex].equals("--scan")) {
+                scan = true;
+                argIndex++;
+            } else if (args[argIndex].equals("--append")) {
+                append = true;
+                argIndex++;
+            } else {
+                break;
+            }
+        }
+
+        if (args.length <= argIndex) {
+            System.err.println("Usage: java -jar SkriptAddonPatcher.jar [--threads <amount>] [--all] [--append] [--watch | --scan] <addon jar or folder>");
             System.exit(-1);
         }
 
-        File file = new File(args[0]);
+        File file = new File(args[argIndex]);
         if (!file.exists()) {
-            System.err.println("The file " + args[0] + " does not exist");
+            System.err.println("The file " + args[argIndex] + " does not exist");
+            System.exit(-1);
+        }
+
+        if (watch && !file.isDirectory()) {
+            System.err.println("Only folders can be watched");
+            System.exit(-1);
+        }
+        if (watch && scan) {
+            System.err.println("Folders can't be watched and scanned at the same time");
             System.exit(-1);
         }
 
+        boolean appendPatches = append; // Effectively final, used in lambdas
+
+        // Only report what would be patched, like patching a jar or folder
+        if (scan) {
+            List<File> jarFiles = file.isDirectory() ? listJars(file) : Collections.singletonList(file);
+            PluginTriage triage = all || !file.isDirectory() ? null : PluginTriage.fromSystemProperties();
+            if (!scanFiles(jarFiles, threads, triage))
+                System.exit(-1);
+            return;
+        }
+
+        // Keep patching the jars of a directory whenever they change
+        if (watch) {
+            PluginTriage triage = all ? null : PluginTriage.fromSystemProperties();
+            JarWatcher watcher = new JarWatcher(file, threads, loopFile -> patchCandidate(loopFile, triage, appendPatches),
+                    (loopFile, changed, exception) -> {
+                        if (exception != null) {
+                            System.err.println("Couldn't patch " + loopFile);
+                            exception.printStackTrace();
+                        } else if (changed) {
+                            System.out.println(loopFile + " was patched");
+                        }
+                    }, JarWatcher.DEFAULT_DEBOUNCE_MILLIS);
+
+            System.out.println("Watching " + file + " for new or changed addons, press Ctrl+C to stop");
+            try {
+                watcher.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
         // Patch a whole directory
         if (file.isDirectory()) {
-            File[] files = file.listFiles();
-            if (files == null)
-                throw new IOException();
+            List<File> jarFiles = listJars(file);
 
-            boolean anyChanged = false;
-            for (File loopFile : files) {
-                if (!loopFile.getName().endsWith(".jar"))
-                    continue; // skip non-.jar files
+            // Only plugins depending on Skript are patched, unless all jars should be
+            PluginTriage triage = all ? null : PluginTriage.fromSystemProperties();
+            AtomicBoolean anyChanged = new AtomicBoolean();
+            AtomicBoolean anyFailed = new AtomicBoolean();
+            BatchPatcher.patchAll(jarFiles, threads, loopFile -> patchCandidate(loopFile, triage, appendPatches), (loopFile, changed, exception) -> {
+                if (exception != null) {
+                    anyFailed.set(true);
 
-                boolean changed = patchFile(loopFile);
-                if (changed) {
-                    anyChanged = true;
+                    System.err.println("Couldn't patch " + loopFile);
+                    exception.printStackTrace();
+                } else if (changed) {
+                    anyChanged.set(true);
 
                     System.out.println(loopFile + " was patched");
                 }
-            }
+            });
 
-            if (!anyChanged) {
+            if (!anyChanged.get() && !anyFailed.get()) {
                 System.out.println("No addons required patching");
             }
 
+            if (anyFailed.get())
+                System.exit(-1);
             return;
         }
 
@@ -53,7 +147,7 @@ public class Java {
             System.exit(-1);
         }
 
-        boolean changed = patchFile(file);
+        boolean changed = patchFile(file, append);
 
         if (changed) {
             System.out.println(file + " was patched");
@@ -63,22 +157,81 @@ public class Java {
     }
 
     /**
-     * Patch a single file, return whether it was changed
+     * The jar files in the given directory, sorted by name
      */
-    private static boolean patchFile(File file) throws IOException {
-        JarFile jarFile = new JarFile(file);
+    private static List<File> listJars(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException();
+
+        List<File> jarFiles = new ArrayList<>();
+        for (File loopFile : files) {
+            if (!loopFile.getName().endsWith(".jar"))
+                continue; // skip non-.jar files
+            jarFiles.add(loopFile);
+        }
+        jarFiles.sort(Comparator.comparing(File::getName));
+        return jarFiles;
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean changed = Patcher.patchJar(jarFile, baos, true);
+    /**
+     * Prints every instruction the patcher would replace in the given jars, without changing them.
+     * The report is written to standard output as tab separated values, with a header line,
+     * and a line per replaced instruction: jar file name, class, method name and descriptor, rule ID.
+     * Only jars the given triage considers addons are scanned, unless the triage is null.
+     *
+     * @return whether all jars could be scanned
+     */
+    private static boolean scanFiles(List<File> jarFiles, int threads, PluginTriage triage) {
+        // Scanned concurrently, but printed in order of the files
+        Map<File, List<String>> reports = new ConcurrentHashMap<>();
+        AtomicBoolean anyFailed = new AtomicBoolean();
+        System.out.println("jar\tclass\tmethod\trule");
+
+        BatchPatcher.patchAll(jarFiles, threads, loopFile -> {
+            if (triage != null && !triage.isCandidate(loopFile))
+                return false;
+            List<String> lines = new ArrayList<>();
+            try (ZipArchive archive = ZipArchive.open(loopFile)) {
+                Patcher.scanJar(archive, (className, methodName, methodDescriptor, rule) -> lines.add(
+                        loopFile.getName() + "\t" + className + "\t" + methodName + methodDescriptor + "\t" + rule.getId()
+                ), true);
+            }
+            reports.put(loopFile, lines);
+            return !lines.isEmpty();
+        }, (loopFile, changed, exception) -> {
+            List<String> lines = reports.remove(loopFile);
+            if (exception != null) {
+                anyFailed.set(true);
+
+                System.err.println("Couldn't scan " + loopFile);
+                exception.printStackTrace();
+            } else if (lines != null) {
+                for (String line : lines) {
+                    System.out.println(line);
+                }
+            }
+        });
 
-        if (changed) {
-            // Replace the original jar file
-            FileOutputStream fileOutputStream = new FileOutputStream(file);
-            baos.writeTo(fileOutputStream);
-            fileOutputStream.close();
-            return true;
-        }
-        return false;
+        return !anyFailed.get();
+    }
+
+    /**
+     * Patch a single file if the given triage considers it an addon, or if the triage is null.
+     * Returns whether the file was changed.
+     */
+    private static boolean patchCandidate(File file, PluginTriage triage, boolean append) throws IOException {
+        // Undo an interrupted append first, since the jar can't be read until then
+        ZipAppender.recover(file);
+        return (triage == null || triage.isCandidate(file)) && patchFile(file, append);
+    }
+
+    /**
+     * Patch a single file, return whether it was changed.
+     * If append is true, the patched classes are appended to the file instead of rewriting it.
+     */
+    private static boolean patchFile(File file, boolean append) throws IOException {
+        return append ? Patcher.appendPatches(file, true, POOL) : Patcher.patchFile(file, true, POOL);
     }
 
 }
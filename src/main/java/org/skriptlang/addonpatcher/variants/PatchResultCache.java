@@ -0,0 +1,178 @@
+package org.skriptlang.addonpatcher.variants;
+
+import org.skriptlang.addonpatcher.Util;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which jar files were already checked by the patcher, and whether they were clean or patched,
+ * so that unchanged jars don't have to be opened again on the next start.
+ * <p>
+ * Jars are identified by their path, and considered unchanged if their size and modification time are the same.
+ * If only the modification time changed, the content hash is compared instead.
+ * The whole cache is discarded when {@link Patcher#VERSION} changes, since jars may then need (other) patches.
+ */
+public class PatchResultCache {
+
+    private static final String HEADER = "AddonPatcher patch cache v";
+
+    public enum State {
+        /**
+         * The jar didn't require patching
+         */
+        CLEAN,
+        /**
+         * The jar was patched, and doesn't require any more patching
+         */
+        PATCHED
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final State state;
+
+        private Entry(long size, long lastModified, String hash, State state) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.state = state;
+        }
+    }
+
+    private final File cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public PatchResultCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Loads the cache from its file. If the file doesn't exist, or was written by another patcher version,
+     * the cache stays empty.
+     */
+    public void load() throws IOException {
+        entries.clear();
+        if (!cacheFile.isFile())
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!(HEADER + Patcher.VERSION).equals(reader.readLine()))
+                return; // Other version, start over
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // size, last modified, hash, state, path (last, since it may contain tabs)
+                String[] split = line.split("\t", 5);
+                if (split.length != 5)
+                    continue;
+                try {
+                    entries.put(split[4], new Entry(
+                            Long.parseLong(split[0]),
+                            Long.parseLong(split[1]),
+                            split[2],
+                            State.valueOf(split[3])
+                    ));
+                } catch (IllegalArgumentException ignored) {
+                    // Corrupt line, the jar will just be checked again
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to its file, replacing it atomically where supported.
+     * Only entries of the given jar files are kept, so removed plugins don't stay in the cache forever.
+     */
+    public void save(Collection<File> keep) throws IOException {
+        Set<String> keepPaths = new HashSet<>();
+        for (File file : keep) {
+            keepPaths.add(key(file));
+        }
+
+        Path path = cacheFile.toPath();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tempPath = path.resolveSibling(cacheFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + Patcher.VERSION);
+            writer.newLine();
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                if (!keepPaths.contains(mapEntry.getKey()))
+                    continue;
+                Entry entry = mapEntry.getValue();
+                writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.hash + "\t"
+                        + entry.state + "\t" + mapEntry.getKey());
+                writer.newLine();
+            }
+        }
+
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the cached state of the given jar file, or null if the jar has changed since it was cached.
+     * In most cases this only checks the size and modification time of the jar, without opening it.
+     */
+    public State get(File file) throws IOException {
+        String key = key(file);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.size != file.length())
+            return null;
+        if (entry.lastModified == file.lastModified())
+            return entry.state;
+
+        // Modification time changed (e.g. the jar was copied), check if the contents did too
+        if (!entry.hash.equals(hash(file)))
+            return null;
+        entries.put(key, new Entry(entry.size, file.lastModified(), entry.hash, entry.state));
+        return entry.state;
+    }
+
+    /**
+     * Stores the state of the given jar file, as it is on disk right now.
+     */
+    public void put(File file, State state) throws IOException {
+        entries.put(key(file), new Entry(file.length(), file.lastModified(), hash(file), state));
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * The SHA-256 hash of the given file, in hexadecimal
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = Util.newSha256();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return Util.toHex(digest.digest());
+    }
+
+}
@@ -0,0 +1,221 @@
+package org.skriptlang.addonpatcher.variants;
+
+import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which plugin jars need to be checked by the patcher, by reading their {@code plugin.yml}
+ * and {@code paper-plugin.yml}. A plugin that depends on Skript (or loads before it) is an addon.
+ * A plugin that doesn't can still use Skript optionally, so it's only skipped if none of its classes
+ * reference the Skript API that the patcher replaces, which is checked by only reading their constant pools.
+ * <p>
+ * Jars without a plugin description, e.g. libraries, are always checked.
+ * The automatic decision can be overridden per plugin, by plugin name or jar file name.
+ */
+public class PluginTriage {
+
+    /**
+     * The system property used to always check the given plugins, separated by commas.
+     */
+    public static final String INCLUDE_PROPERTY = "addonpatcher.include";
+
+    /**
+     * The system property used to never check the given plugins, separated by commas.
+     */
+    public static final String EXCLUDE_PROPERTY = "addonpatcher.exclude";
+
+    private static final String SKRIPT = "skript";
+
+    /**
+     * Plugins that are never patched: Skript itself, and this plugin (which loads before Skript)
+     */
+    private static final List<String> DEFAULT_EXCLUDE = Arrays.asList(SKRIPT, "addonpatcher");
+
+    /**
+     * The top level keys of plugin.yml listing plugin names
+     */
+    private static final List<String> DEPENDENCY_KEYS = Arrays.asList("depend", "softdepend", "loadbefore");
+
+    /**
+     * The top level key of paper-plugin.yml, containing the dependencies as keys or as {@code name} values
+     */
+    private static final String PAPER_DEPENDENCIES_KEY = "dependencies";
+
+    /**
+     * Lower case plugin names and jar file names
+     */
+    private final Set<String> include = new HashSet<>();
+    private final Set<String> exclude = new HashSet<>();
+
+    public PluginTriage(Collection<String> include, Collection<String> exclude) {
+        for (String name : include) {
+            this.include.add(name.toLowerCase(Locale.ROOT));
+        }
+        this.exclude.addAll(DEFAULT_EXCLUDE);
+        for (String name : exclude) {
+            this.exclude.add(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Creates a triage configured by the system properties.
+     */
+    public static PluginTriage fromSystemProperties() {
+        return new PluginTriage(splitProperty(INCLUDE_PROPERTY), splitProperty(EXCLUDE_PROPERTY));
+    }
+
+    private static List<String> splitProperty(String key) {
+        List<String> names = new ArrayList<>();
+        String property = System.getProperty(key);
+        if (property != null) {
+            for (String name : property.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty())
+                    names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Checks whether the given jar could be a Skript addon, and should therefore be checked by the patcher.
+     * The plugin descriptions are read from the jar, and the classes only if the plugin doesn't depend on Skript.
+     */
+    public boolean isCandidate(File file) throws IOException {
+        String fileName = file.getName().toLowerCase(Locale.ROOT);
+        if (include.contains(fileName))
+            return true;
+        if (exclude.contains(fileName))
+            return false;
+
+        // Not mapped, since the agent triages jars that may be replaced while the server keeps running
+        try (ZipArchive archive = ZipArchive.open(file, false)) {
+            String name = null;
+            Set<String> dependencies = new HashSet<>();
+            boolean hasDescription = false;
+            for (String entryName : new String[]{"plugin.yml", "paper-plugin.yml"}) {
+                ZipArchive.Entry entry = archive.getEntry(entryName);
+                if (entry == null)
+                    continue;
+                hasDescription = true;
+                String descriptionName = readDescription(new String(archive.read(entry), StandardCharsets.UTF_8), dependencies);
+                if (name == null)
+                    name = descriptionName;
+            }
+
+            if (!hasDescription)
+                return true;
+            if (name != null) {
+                name = name.toLowerCase(Locale.ROOT);
+                if (include.contains(name))
+                    return true;
+                if (exclude.contains(name))
+                    return false;
+            }
+            // Not declared, but the plugin may still use Skript if it's installed
+            return dependencies.contains(SKRIPT) || mayNeedPatching(archive);
+        } catch (IllegalArgumentException e) {
+            return true; // Can't tell, let the patcher deal with it
+        }
+    }
+
+    /**
+     * Whether any class in the given jar passes {@link Patcher#mayNeedPatching(byte[])}
+     */
+    private static boolean mayNeedPatching(ZipArchive archive) throws IOException {
+        for (ZipArchive.Entry entry : archive.getEntries()) {
+            if (entry.getName().endsWith(".class") && Patcher.mayNeedPatching(archive.read(entry)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the plugin names the given plugin description depends on (lower case) into the given set,
+     * and returns the name of the plugin, or null if it isn't set.
+     * <p>
+     * This is not a full YAML parser, it only understands the keys of plugin descriptions it needs,
+     * as top level keys with flow lists ({@code [a, b]}), block lists ({@code - a}) or single values,
+     * and the nested keys and {@code name} values below {@code dependencies}.
+     */
+    static String readDescription(String description, Set<String> dependencies) {
+        String name = null;
+        String section = null; // The top level key the current indented lines belong to
+        for (String line : description.split("\r?\n")) {
+            int comment = line.indexOf(" #");
+            if (comment != -1)
+                line = line.substring(0, comment);
+            if (line.trim().isEmpty() || line.trim().startsWith("#"))
+                continue;
+
+            if (!Character.isWhitespace(line.charAt(0)) && line.charAt(0) != '-') { // Top level key
+                int colon = line.indexOf(':');
+                if (colon == -1) {
+                    section = null;
+                    continue;
+                }
+                section = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (section.equals("name")) {
+                    name = unquote(value);
+                } else if (DEPENDENCY_KEYS.contains(section) && !value.isEmpty()) {
+                    addNames(value, dependencies);
+                }
+                continue;
+            }
+
+            String value = line.trim();
+            if (value.startsWith("-"))
+                value = value.substring(1).trim();
+            if (DEPENDENCY_KEYS.contains(section)) {
+                addNames(value, dependencies);
+            } else if (PAPER_DEPENDENCIES_KEY.equals(section)) {
+                // Either a plugin name as key (e.g. "Skript:"), or a "name: Skript" entry
+                int colon = value.indexOf(':');
+                if (colon == -1)
+                    continue;
+                String key = unquote(value.substring(0, colon));
+                if (key.equals("name")) {
+                    addNames(value.substring(colon + 1), dependencies);
+                } else {
+                    dependencies.add(key.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Adds the names of a flow list or single value to the given set, in lower case
+     */
+    private static void addNames(String value, Set<String> names) {
+        value = value.trim();
+        if (value.startsWith("[") && value.endsWith("]"))
+            value = value.substring(1, value.length() - 1);
+        for (String name : value.split(",")) {
+            name = unquote(name);
+            if (!name.isEmpty())
+                names.add(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static String unquote(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && (value.startsWith("'") && value.endsWith("'")
+                || value.startsWith("\"") && value.endsWith("\"")))
+            value = value.substring(1, value.length() - 1);
+        return value;
+    }
+
+}
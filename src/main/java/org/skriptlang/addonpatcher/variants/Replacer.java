@@ -1,52 +1,101 @@
 package org.skriptlang.addonpatcher.variants;
 
+import org.skriptlang.addonpatcher.metrics.PatcherMetrics;
+import org.skriptlang.addonpatcher.patcher.BatchPatcher;
 import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.zip.ZipAppender;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.jar.JarFile;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 public class Replacer {
 
+    /**
+     * The system property used to only append the patched classes to the jars, instead of rewriting them,
+     * see {@link Patcher#appendPatches(File, boolean, ForkJoinPool)}.
+     */
+    public static final String APPEND_PROPERTY = "addonpatcher.append";
+
     /**
      * Called very early in the plugin loading process,
      * not giving any addons time to load their code.
+     * The given data folder is used to remember which jars were already checked.
      */
-    public static void replaceFiles(Logger logger) {
+    public static void replaceFiles(Logger logger, File dataFolder) {
+        long start = System.nanoTime();
+        PatcherMetrics.get().register(logger);
+
         File[] files = new File("plugins").listFiles();
         if (files != null) {
+            // Loops through all .jar files in plugins folder
+            List<File> jarFiles = new ArrayList<>();
             for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(".jar")) {
+                if (file.isFile() && file.getName().endsWith(".jar"))
+                    jarFiles.add(file);
+            }
+            jarFiles.sort(Comparator.comparing(File::getName));
 
-                    // Loops through all .jar files in plugins folder
-                    try {
-                        JarFile jarFile = new JarFile(file);
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PatchResultCache cache = new PatchResultCache(new File(dataFolder, "patch-cache.txt"));
+            try {
+                cache.load();
+            } catch (IOException e) {
+                logger.warning("Couldn't read the patch cache, all plugins will be checked: " + e);
+            }
 
-                        // Patches the plugin jar
-                        boolean changed = Patcher.patchJar(jarFile, baos, false);
-                        if (changed) {
-                            // If changes were made, replace the original plugin jar with the new variant.
-                            FileOutputStream fileOutputStream = new FileOutputStream(file);
-                            baos.writeTo(fileOutputStream);
-                            fileOutputStream.close();
+            // Used to patch the classes of each jar in parallel, shut down when done
+            ForkJoinPool pool = new ForkJoinPool();
+            PluginTriage triage = PluginTriage.fromSystemProperties();
+            boolean append = Boolean.getBoolean(APPEND_PROPERTY);
 
+            BatchPatcher.patchAll(jarFiles, BatchPatcher.defaultThreads(), file -> patchFile(file, pool, cache, triage, append),
+                    (file, changed, exception) -> {
+                        if (exception != null) {
+                            PatcherMetrics.get().error();
+                            exception.printStackTrace();
+                        } else if (changed) {
                             logger.warning(file.getName() + " is incompatible with newer Skript versions and was patched.");
                             logger.warning("Please report this to the author of this addon, " +
                                     "so they can make sure their addon works on newer Skript versions.");
                         }
+                    });
 
-                        jarFile.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            pool.shutdown();
 
-                }
+            try {
+                cache.save(jarFiles);
+            } catch (IOException e) {
+                logger.warning("Couldn't save the patch cache: " + e);
             }
         }
+        PatcherMetrics.get().recordTotalTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Patch a single plugin jar, return whether it was changed.
+     * Jars that are known to be clean or patched already, and plugins that aren't Skript addons, are skipped.
+     */
+    private static boolean patchFile(File file, ForkJoinPool pool, PatchResultCache cache,
+                                     PluginTriage triage, boolean append) throws IOException {
+        // Undo an interrupted append first, since the jar can't be read until then
+        ZipAppender.recover(file);
+        if (cache.get(file) != null) {
+            PatcherMetrics.get().cacheHit();
+            return false;
+        }
+        // Not cached, so changing the include and exclude lists takes effect on the next start
+        if (!triage.isCandidate(file))
+            return false;
+
+        // Patches the plugin jar, replacing it if changes were made
+        boolean changed = append ? Patcher.appendPatches(file, false, pool) : Patcher.patchFile(file, false, pool);
+
+        cache.put(file, changed ? PatchResultCache.State.PATCHED : PatchResultCache.State.CLEAN);
+        return changed;
     }
 
 }
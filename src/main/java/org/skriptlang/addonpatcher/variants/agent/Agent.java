@@ -1,28 +1,90 @@
 package org.skriptlang.addonpatcher.variants.agent;
 
 import com.sun.tools.attach.VirtualMachine;
+import org.skriptlang.addonpatcher.metrics.PatchEvents;
+import org.skriptlang.addonpatcher.metrics.PatcherMetrics;
+import org.skriptlang.addonpatcher.patcher.BatchPatcher;
 import org.skriptlang.addonpatcher.patcher.Patcher;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.ProtectionDomain;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 /**
  * The Agent variant attaches an agent to the server using the Attach API,
  * and then adds a class file transformer using the Instrumentation API.
+ * <p>
+ * The agent can also be installed when the server starts, with {@code -javaagent:plugins/AddonPatcher.jar},
+ * in which case the plugin doesn't attach it again.
  */
 public class Agent {
 
+    /**
+     * The system property set once the transformer is installed.
+     * A system property is used since the agent and the plugin may load this class with different class loaders.
+     */
+    public static final String INSTALLED_PROPERTY = "addonpatcher.agent.installed";
+
+    /**
+     * The directory patched classes are cached in when the agent is installed on startup without arguments,
+     * the same directory the plugin uses
+     */
+    private static final String DEFAULT_CACHE_DIRECTORY = "AddonPatcher" + File.separator + "class-cache";
+
+    /**
+     * Installs the agent on startup, when the server is started with {@code -javaagent}.
+     *
+     * @param args the directory to cache patched classes in, defaults to the cache directory of the plugin
+     */
+    public static void premain(String args, Instrumentation instrumentation) {
+        if (args == null || args.isEmpty())
+            args = new File(ClassFilter.getPluginsDirectory(), DEFAULT_CACHE_DIRECTORY).getPath();
+        agentmain(args, instrumentation);
+    }
+
+    /**
+     * @param args the directory to cache patched classes in, or null to not cache them
+     */
     public static void agentmain(String args, Instrumentation instrumentation) {
-        instrumentation.addTransformer(new ClassPatcher());
+        if (isInstalled())
+            return;
+        Logger logger = Logger.getLogger("AddonPatcher");
+
+        ClassCache classCache = null;
+        if (args != null && !args.isEmpty()) {
+            try {
+                classCache = ClassCache.open(logger, new File(args));
+            } catch (IOException e) {
+                logger.warning("Couldn't open the class cache, classes will be patched on every start: " + e);
+            }
+        }
+
+        PatcherMetrics.get().register(logger);
+        ClassPrefetcher prefetcher = ClassPrefetcher.isEnabled() ? new ClassPrefetcher(logger) : null;
+        ClassPatcher classPatcher = new ClassPatcher(ClassFilter.fromSystemProperties(), classCache, prefetcher);
+        instrumentation.addTransformer(classPatcher);
+        System.setProperty(INSTALLED_PROPERTY, "true");
+
+        // Patch the addons in the background, while the server is loading
+        if (prefetcher != null) {
+            prefetcher.start(ClassFilter.getPluginsDirectory(), BatchPatcher.defaultThreads(),
+                    (classBytes, used) -> classPatcher.patchCached(classBytes, used, null));
+        }
+    }
+
+    /**
+     * Whether the transformer is already installed in this JVM, by any class loader.
+     */
+    public static boolean isInstalled() {
+        return Boolean.getBoolean(INSTALLED_PROPERTY);
     }
 
     public static void main(String[] args) throws Exception {
@@ -63,8 +125,22 @@ public class Agent {
 
         String path = args[0];
         String pid = args[1];
+        String cacheDirectory = args.length > 2 ? args[2] : null;
+
+        attach(pid, path, cacheDirectory);
+    }
 
-        VirtualMachine.attach(pid).loadAgent(path);
+    /**
+     * Loads the agent jar at the given path into the JVM with the given PID.
+     * Requires the Attach API to be available.
+     */
+    public static void attach(String pid, String path, String cacheDirectory) throws Exception {
+        VirtualMachine virtualMachine = VirtualMachine.attach(pid);
+        try {
+            virtualMachine.loadAgent(path, cacheDirectory);
+        } finally {
+            virtualMachine.detach();
+        }
     }
 
     /**
@@ -93,7 +169,26 @@ public class Agent {
     public static class ClassPatcher implements ClassFileTransformer {
 
         private final Logger logger = Logger.getLogger("AddonPatcher");
-        private final List<URL> reportedURLs = new ArrayList<>();
+        private final JarVerdicts jarVerdicts = new JarVerdicts();
+        private final ClassFilter classFilter;
+        /**
+         * The cache of patched classes, may be null
+         */
+        private final ClassCache classCache;
+        /**
+         * The classes patched in the background, may be null
+         */
+        private final ClassPrefetcher prefetcher;
+
+        public ClassPatcher(ClassFilter classFilter, ClassCache classCache) {
+            this(classFilter, classCache, null);
+        }
+
+        public ClassPatcher(ClassFilter classFilter, ClassCache classCache, ClassPrefetcher prefetcher) {
+            this.classFilter = classFilter;
+            this.classCache = classCache;
+            this.prefetcher = prefetcher;
+        }
 
         @Override
         public byte[] transform(ClassLoader loader,
@@ -101,34 +196,85 @@ public class Agent {
                                 Class<?> classBeingRedefined,
                                 ProtectionDomain protectionDomain,
                                 byte[] classfileBuffer) {
+            PatcherMetrics metrics = PatcherMetrics.get();
+            metrics.classSeen();
+            // Retransformed classes were already patched when first loaded
+            if (classBeingRedefined != null || !classFilter.accepts(loader, className, protectionDomain)) {
+                metrics.classFiltered();
+                return null;
+            }
+
+            long start = System.nanoTime();
+            Object event = PatchEvents.beginClassTransform();
+            Set<String> rules = PatchEvents.ruleSet(event);
+            byte[] result = null;
             try {
-                return transformUnsafe(loader, classfileBuffer);
+                result = transformUnsafe(loader, className, protectionDomain, classfileBuffer, rules);
+                return result;
             } catch (Exception e) {
+                metrics.error();
                 logger.warning("Caught exception while transforming " + className + ", please report this.");
                 e.printStackTrace();
                 return null;
+            } finally {
+                metrics.recordClassTransform(System.nanoTime() - start);
+                if (event != null) {
+                    String jar = jarVerdicts.get(loader, protectionDomain.getCodeSource().getLocation()).getName();
+                    PatchEvents.commitClassTransform(event, className, loader, jar, classfileBuffer, result, rules);
+                }
             }
         }
 
-        public byte[] transformUnsafe(ClassLoader loader, byte[] classfileBuffer) {
+        /**
+         * Patches a class accepted by the {@link ClassFilter}, returns null if no transformation is needed.
+         */
+        public byte[] transformUnsafe(ClassLoader loader, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            return transformUnsafe(loader, null, protectionDomain, classfileBuffer, null);
+        }
+
+        /**
+         * Patches a class like {@link #transformUnsafe(ClassLoader, ProtectionDomain, byte[])},
+         * adding the IDs of the applied rules to the given set if it isn't null.
+         *
+         * @param className the internal name of the class, used to find prefetched results, may be null
+         */
+        private byte[] transformUnsafe(ClassLoader loader, String className, ProtectionDomain protectionDomain,
+                                       byte[] classfileBuffer, Set<String> rules) {
+            // Skip every class of jars that don't reference anything patched
+            JarVerdicts.Verdict verdict = jarVerdicts.get(loader, protectionDomain.getCodeSource().getLocation());
+            long start = System.nanoTime();
+            try {
+                return transformVerdict(verdict, className, classfileBuffer, rules);
+            } finally {
+                PatcherMetrics.get().recordJarTime(verdict.getName(), System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Patches a class of the jar the given verdict is about, returns null if no transformation is needed.
+         */
+        private byte[] transformVerdict(JarVerdicts.Verdict verdict, String className, byte[] classfileBuffer,
+                                        Set<String> rules) {
+            PatcherMetrics metrics = PatcherMetrics.get();
+            if (!verdict.mayNeedPatching()) {
+                metrics.classFiltered();
+                return null;
+            }
+
+            metrics.classScanned();
+            if (!Patcher.mayNeedPatching(classfileBuffer))
+                return null; // no transformation needed
+
             AtomicBoolean used = new AtomicBoolean();
-            byte[] bytes = Patcher.patchClass(classfileBuffer, used);
+            byte[] bytes = takePrefetched(className, classfileBuffer, used);
+            if (bytes == null)
+                bytes = patchCached(classfileBuffer, used, rules);
             if (used.get()) {
-                // Get the URL where this class originated from
-                if (loader instanceof URLClassLoader) {
-                    URL[] urls = ((URLClassLoader) loader).getURLs();
-                    if (urls.length == 1) {
-                        URL url = urls[0];
-                        if (!reportedURLs.contains(url)) {
-                            reportedURLs.add(url);
-
-                            File file = new File(url.getFile());
-
-                            logger.warning(file.getName() + " is incompatible with newer Skript versions (without AddonPatcher).");
-                            logger.warning("Please report this to the author of this addon, " +
-                                    "so they can make sure their addon works on newer Skript versions.");
-                        }
-                    }
+                metrics.classPatched();
+                if (verdict.markReported()) {
+                    logger.warning(verdict.getName() + " is incompatible with newer Skript versions (without AddonPatcher).");
+                    logger.warning("Please report this to the author of this addon, " +
+                            "so they can make sure their addon works on newer Skript versions.");
                 }
 
                 return bytes;
@@ -136,6 +282,49 @@ public class Agent {
 
             return null; // no transformation needed
         }
+
+        /**
+         * Takes the result of the given class from the {@link ClassPrefetcher},
+         * returns null if there is no prefetcher, or if it didn't get to the class yet.
+         */
+        private byte[] takePrefetched(String className, byte[] classfileBuffer, AtomicBoolean used) {
+            if (prefetcher == null || className == null)
+                return null;
+            byte[] bytes = prefetcher.take(className, classfileBuffer, used);
+            if (bytes != null)
+                PatcherMetrics.get().prefetchHit();
+            return bytes;
+        }
+
+        /**
+         * Patches the given class like {@link Patcher#patchClass(byte[], AtomicBoolean)},
+         * using the results of a previous start if possible.
+         * The IDs of the applied rules are added to the given set if it isn't null, unless the class was cached.
+         */
+        byte[] patchCached(byte[] classfileBuffer, AtomicBoolean used, Set<String> rules) {
+            if (classCache == null)
+                return Patcher.patchClass(classfileBuffer, used, rules);
+
+            String hash = ClassCache.hash(classfileBuffer);
+            if (classCache.isClean(hash)) {
+                PatcherMetrics.get().cacheHit();
+                return classfileBuffer;
+            }
+            byte[] cached = classCache.getPatched(hash);
+            if (cached != null) {
+                PatcherMetrics.get().cacheHit();
+                used.set(true);
+                return cached;
+            }
+
+            byte[] bytes = Patcher.patchClass(classfileBuffer, used, rules);
+            if (used.get()) {
+                classCache.putPatched(hash, bytes);
+            } else {
+                classCache.putClean(hash);
+            }
+            return bytes;
+        }
     }
 
 }
@@ -10,14 +10,25 @@ import java.util.logging.Logger;
 public class AgentPlugin {
 
     /**
-     * Starts and attaches the agent to the server.
+     * The system property allowing a JVM to attach to itself, on Java 9 and above.
+     * It's read when the JVM starts, so setting it afterwards has no effect.
+     */
+    private static final String ALLOW_ATTACH_SELF_PROPERTY = "jdk.attach.allowAttachSelf";
+
+    /**
+     * Starts and attaches the agent to the server, unless it's already installed.
      */
     public static boolean load(AddonPatcher addonPatcher, File file) {
         Logger logger = addonPatcher.getLogger();
 
+        if (Agent.isInstalled()) {
+            logger.info("Agent already installed, not attaching");
+            return true;
+        }
+
         boolean success;
         try {
-            success = startAgent(logger, file);
+            success = startAgent(logger, file, new File(addonPatcher.getDataFolder(), "class-cache"));
         } catch (IOException e) {
             e.printStackTrace();
             return false;
@@ -33,19 +44,24 @@ public class AgentPlugin {
 
     /**
      * Start & attach the agent, using a new process to avoid security manager interference.
+     * Patched classes are cached in the given directory.
      */
-    public static boolean startAgent(Logger logger, File file) throws IOException {
+    public static boolean startAgent(Logger logger, File file, File cacheDirectory) throws IOException {
         String name = ManagementFactory.getRuntimeMXBean().getName();
         String pid = name.substring(0, name.indexOf('@'));
-        logger.info("Attaching to PID " + pid);
-
         String jarPath = file.getCanonicalPath();
 
+        if (attachSelf(logger, pid, jarPath, cacheDirectory))
+            return true;
+
+        logger.info("Attaching to PID " + pid);
+
         // Start a new Java process (same JVM as server) with the Agent class as main
 
         String javaCommand = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
 
-        Process process = new ProcessBuilder(javaCommand, "-cp", jarPath, Agent.class.getName(), jarPath, pid)
+        Process process = new ProcessBuilder(javaCommand, "-cp", jarPath, Agent.class.getName(), jarPath, pid,
+                cacheDirectory.getAbsolutePath())
                 .redirectError(ProcessBuilder.Redirect.INHERIT)
                 .redirectOutput(ProcessBuilder.Redirect.INHERIT)
                 .start();
@@ -64,4 +80,30 @@ public class AgentPlugin {
         return true;
     }
 
+    /**
+     * Attaches the agent from within the server itself, which is much faster than starting a new process.
+     * This is only possible if the server runs on a JDK, and either Java 8 or with {@code -Djdk.attach.allowAttachSelf=true}.
+     *
+     * @return whether the agent was attached, if not the new process has to be used instead
+     */
+    private static boolean attachSelf(Logger logger, String pid, String jarPath, File cacheDirectory) {
+        boolean isJava8 = "1.8".equals(System.getProperty("java.vm.specification.version"));
+        if (!isJava8 && !Boolean.getBoolean(ALLOW_ATTACH_SELF_PROPERTY))
+            return false;
+
+        try {
+            Class.forName("com.sun.tools.attach.VirtualMachine");
+        } catch (ClassNotFoundException e) {
+            return false; // Not a JDK, or tools.jar isn't on the class path of Java 8
+        }
+
+        try {
+            Agent.attach(pid, jarPath, cacheDirectory.getAbsolutePath());
+        } catch (Exception | LinkageError e) {
+            logger.info("Couldn't attach from the server, starting a new process instead: " + e);
+            return false;
+        }
+        return Agent.isInstalled();
+    }
+
 }
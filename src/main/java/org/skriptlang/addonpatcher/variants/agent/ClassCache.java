@@ -0,0 +1,360 @@
+package org.skriptlang.addonpatcher.variants.agent;
+
+import org.skriptlang.addonpatcher.Util;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of patched classes for the Agent variant, keyed by the SHA-256 hash of the original class bytes.
+ * <p>
+ * Patched classes are stored as {@code <hash>.class} files, classes that turned out to not require patching
+ * are listed in {@code clean.txt}. Every patcher version has its own directory, older ones are deleted on startup.
+ * <p>
+ * Only classes passing {@link Patcher#mayNeedPatching(byte[])} should be looked up,
+ * since that check is cheaper than hashing the class.
+ */
+public class ClassCache {
+
+    private static final String CLEAN_FILE = "clean.txt";
+    private static final String VERSION_PREFIX = "v";
+
+    /**
+     * The maximum amount of patched classes stored, before the least recently used ones are evicted,
+     * and separately the maximum amount of clean class hashes stored, before the oldest ones are dropped
+     */
+    private static final int MAX_ENTRIES = 4096;
+    /**
+     * The maximum total size of all patched classes and {@code clean.txt}, before the least recently used classes are evicted
+     */
+    private static final long MAX_BYTES = 64 * 1024 * 1024;
+    /**
+     * The size of a line of {@code clean.txt}: a hexadecimal SHA-256 hash and a line separator
+     */
+    private static final int CLEAN_LINE_BYTES = 64 + System.lineSeparator().length();
+    /**
+     * How outdated the modification time of a patched class file may get, before it's updated when the class is used
+     */
+    private static final long TOUCH_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final Logger logger;
+    private final Path directory;
+    /**
+     * The hashes of the clean classes, mapped to the order in which they were added
+     */
+    private final Map<String, Long> clean = new ConcurrentHashMap<>();
+    private final AtomicLong cleanOrder = new AtomicLong();
+    /**
+     * The access times of the patched classes by hash, used for eviction
+     */
+    private final Map<String, Access> accessTimes = new ConcurrentHashMap<>();
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private ClassCache(Logger logger, Path directory) {
+        this.logger = logger;
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the cache in the given directory, deleting caches of other patcher versions.
+     */
+    public static ClassCache open(Logger logger, File baseDirectory) throws IOException {
+        Path base = baseDirectory.toPath();
+        Path directory = base.resolve(VERSION_PREFIX + Patcher.VERSION);
+        Files.createDirectories(directory);
+
+        // Delete caches of other versions
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base, VERSION_PREFIX + "*")) {
+            for (Path path : stream) {
+                if (!path.equals(directory))
+                    deleteRecursively(path);
+            }
+        }
+
+        ClassCache cache = new ClassCache(logger, directory);
+        cache.load();
+        return cache;
+    }
+
+    private void load() throws IOException {
+        Path cleanFile = directory.resolve(CLEAN_FILE);
+        if (Files.exists(cleanFile)) {
+            List<String> lines = Files.readAllLines(cleanFile, StandardCharsets.UTF_8);
+            for (String hash : lines) {
+                clean.putIfAbsent(hash, cleanOrder.getAndIncrement());
+            }
+            // Also drops duplicate lines, left by concurrent agents
+            if (lines.size() > clean.size() || clean.size() > MAX_ENTRIES)
+                dropOldestClean();
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.class")) {
+            for (Path path : stream) {
+                entries.incrementAndGet();
+                bytes.addAndGet(Files.size(path));
+                accessTimes.put(hash(path), new Access(lastModified(path)));
+            }
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Hashes the given class bytes, the result is used as key for the other methods.
+     */
+    public static String hash(byte[] classBytes) {
+        return Util.toHex(Util.newSha256().digest(classBytes));
+    }
+
+    /**
+     * Whether the class with the given hash is known to not require patching.
+     */
+    public boolean isClean(String hash) {
+        return clean.containsKey(hash);
+    }
+
+    /**
+     * Returns the patched bytes of the class with the given hash, or null if they aren't cached.
+     */
+    public byte[] getPatched(String hash) {
+        Path path = directory.resolve(hash + ".class");
+        try {
+            byte[] patched = Files.readAllBytes(path);
+
+            long now = System.currentTimeMillis();
+            Access access = accessTimes.get(hash);
+            if (access == null) // Written by another server sharing the cache
+                access = accessTimes.computeIfAbsent(hash, k -> new Access(lastModified(path)));
+            access.lastAccess = now;
+            // The modification time is the access time after a restart, not all file systems keep track of that.
+            // Only updated daily, since it's a metadata write while the class is being loaded
+            if (now - access.lastModified > TOUCH_INTERVAL_MILLIS) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+                access.lastModified = now;
+            }
+            return patched;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warning("Couldn't read cached class " + path + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Remembers that the class with the given hash doesn't require patching.
+     */
+    public void putClean(String hash) {
+        if (clean.putIfAbsent(hash, cleanOrder.getAndIncrement()) != null)
+            return;
+
+        // Appended under a lock, so concurrent class loads don't interleave lines
+        synchronized (clean) {
+            if (clean.size() > MAX_ENTRIES) {
+                dropOldestClean();
+                return; // Rewritten including the new hash
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(CLEAN_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(hash);
+                writer.newLine();
+            } catch (IOException e) {
+                logger.warning("Couldn't write to class cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest clean hashes down to 3/4 of {@link #MAX_ENTRIES} if there are too many,
+     * so this doesn't run for every new class, and rewrites {@code clean.txt} with the remaining ones,
+     * replacing it atomically where supported.
+     */
+    private void dropOldestClean() {
+        synchronized (clean) {
+            List<Map.Entry<String, Long>> hashes = new ArrayList<>(clean.entrySet());
+            hashes.sort(Map.Entry.comparingByValue());
+            int drop = hashes.size() > MAX_ENTRIES ? hashes.size() - MAX_ENTRIES * 3 / 4 : 0;
+            for (int i = 0; i < drop; i++) {
+                clean.remove(hashes.get(i).getKey());
+            }
+
+            Path path = directory.resolve(CLEAN_FILE);
+            try {
+                Path tempPath = Files.createTempFile(directory, "clean", ".tmp");
+                try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                    for (Map.Entry<String, Long> hash : hashes.subList(drop, hashes.size())) {
+                        writer.write(hash.getKey());
+                        writer.newLine();
+                    }
+                }
+                try {
+                    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                logger.warning("Couldn't write to class cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Stores the patched bytes of the class with the given hash.
+     */
+    public void putPatched(String hash, byte[] patched) {
+        Path path = directory.resolve(hash + ".class");
+        try {
+            // Written to a unique temporary file first, so concurrent readers never see a partial class
+            Path tempPath = Files.createTempFile(directory, hash, ".tmp");
+            Files.write(tempPath, patched);
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warning("Couldn't write to class cache: " + e);
+            return;
+        }
+
+        // Another thread (or an earlier run) may have cached the same class already, which replaced the same bytes
+        if (accessTimes.put(hash, new Access(System.currentTimeMillis())) != null)
+            return;
+        entries.incrementAndGet();
+        bytes.addAndGet(patched.length);
+        evictIfNeeded();
+    }
+
+    /**
+     * Deletes the least recently used patched classes, if the cache is over its limits.
+     */
+    private void evictIfNeeded() {
+        if (entries.get() <= MAX_ENTRIES && bytes.get() + cleanBytes() <= MAX_BYTES)
+            return;
+
+        synchronized (this) {
+            if (entries.get() <= MAX_ENTRIES && bytes.get() + cleanBytes() <= MAX_BYTES)
+                return;
+
+            List<Path> paths = new ArrayList<>();
+            // Copied, since classes can be used while sorting
+            Map<Path, Long> lastAccess = new HashMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.class")) {
+                for (Path path : stream) {
+                    paths.add(path);
+                    lastAccess.put(path, lastAccess(path));
+                }
+            } catch (IOException e) {
+                logger.warning("Couldn't clean up class cache: " + e);
+                return;
+            }
+            paths.sort(Comparator.comparingLong(lastAccess::get));
+
+            // Evict to 3/4 of the limits, so this doesn't run for every new class
+            int entryCount = paths.size();
+            long byteCount = cleanBytes();
+            for (Path path : paths) {
+                byteCount += size(path);
+            }
+            for (Path path : paths) {
+                if (entryCount <= MAX_ENTRIES * 3 / 4 && byteCount <= MAX_BYTES * 3 / 4)
+                    break;
+                long size = size(path);
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    continue;
+                }
+                accessTimes.remove(hash(path));
+                entryCount--;
+                byteCount -= size;
+            }
+            entries.set(entryCount);
+            bytes.set(byteCount - cleanBytes());
+        }
+    }
+
+    /**
+     * The size of {@code clean.txt}, counted towards {@link #MAX_BYTES}
+     */
+    private long cleanBytes() {
+        return (long) clean.size() * CLEAN_LINE_BYTES;
+    }
+
+    private long lastAccess(Path path) {
+        Access access = accessTimes.get(hash(path));
+        return access != null ? access.lastAccess : lastModified(path);
+    }
+
+    /**
+     * The hash of the patched class stored in the given file
+     */
+    private static String hash(Path path) {
+        String fileName = path.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ".class".length());
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static class Access {
+        /**
+         * The last time the patched class was used, or written
+         */
+        private volatile long lastAccess;
+        /**
+         * The modification time of the file of the patched class
+         */
+        private volatile long lastModified;
+
+        private Access(long lastModified) {
+            this.lastAccess = lastModified;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path child : stream) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.skriptlang.addonpatcher.variants.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which classes the {@link Agent.ClassPatcher} should look at, without looking at the class bytes.
+ * Only classes from addon jars in the plugins directory are accepted,
+ * classes of the JVM, the server, libraries and Skript itself are rejected.
+ */
+public class ClassFilter {
+
+    /**
+     * The system property used to add package prefixes to skip, separated by commas, e.g. {@code com/example/}.
+     */
+    public static final String SKIP_PACKAGES_PROPERTY = "addonpatcher.agent.skipPackages";
+
+    /**
+     * The system property used to change the plugins directory, if the server uses a different one.
+     */
+    public static final String PLUGINS_DIRECTORY_PROPERTY = "addonpatcher.agent.pluginsDirectory";
+
+    /**
+     * Package prefixes (internal names) that never need patching.
+     * Skript's own jar is skipped through its packages, since those can only be loaded from the Skript jar.
+     */
+    private static final List<String> DEFAULT_SKIP_PACKAGES = Arrays.asList(
+            "java/",
+            "javax/",
+            "jdk/",
+            "sun/",
+            "com/sun/",
+            "net/minecraft/",
+            "com/mojang/",
+            "org/bukkit/",
+            "org/spigotmc/",
+            "io/papermc/",
+            "com/destroystokyo/paper/",
+            "ch/njol/skript/",
+            "org/skriptlang/skript/",
+            "org/skriptlang/addonpatcher/"
+    );
+
+    private final String[] skipPackages;
+    /**
+     * The URL paths of the plugins directory, both absolute and canonical, ending with a slash
+     */
+    private final String[] pluginsDirectoryPaths;
+    /**
+     * Class loaders of the JVM itself, which never load addons
+     */
+    private final Set<ClassLoader> systemLoaders = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public ClassFilter(File pluginsDirectory, List<String> extraSkipPackages) {
+        List<String> skipPackages = new ArrayList<>(DEFAULT_SKIP_PACKAGES);
+        skipPackages.addAll(extraSkipPackages);
+        this.skipPackages = skipPackages.toArray(new String[0]);
+
+        List<String> paths = new ArrayList<>();
+        paths.add(urlPath(pluginsDirectory.getAbsoluteFile()));
+        try {
+            paths.add(urlPath(pluginsDirectory.getCanonicalFile()));
+        } catch (IOException ignored) {
+        }
+        this.pluginsDirectoryPaths = paths.toArray(new String[0]);
+
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        while (loader != null) {
+            systemLoaders.add(loader);
+            loader = loader.getParent();
+        }
+    }
+
+    /**
+     * The plugins directory of the server, configured by {@link #PLUGINS_DIRECTORY_PROPERTY}.
+     */
+    public static File getPluginsDirectory() {
+        return new File(System.getProperty(PLUGINS_DIRECTORY_PROPERTY, "plugins"));
+    }
+
+    /**
+     * Creates a filter configured by the system properties of the server.
+     */
+    public static ClassFilter fromSystemProperties() {
+        File pluginsDirectory = getPluginsDirectory();
+
+        List<String> extraSkipPackages = new ArrayList<>();
+        String property = System.getProperty(SKIP_PACKAGES_PROPERTY);
+        if (property != null) {
+            for (String skipPackage : property.split(",")) {
+                skipPackage = skipPackage.trim().replace('.', '/');
+                if (!skipPackage.isEmpty())
+                    extraSkipPackages.add(skipPackage);
+            }
+        }
+
+        return new ClassFilter(pluginsDirectory, extraSkipPackages);
+    }
+
+    /**
+     * Checks whether the given class could be an addon class, with the arguments given to
+     * {@link java.lang.instrument.ClassFileTransformer#transform(ClassLoader, String, Class, ProtectionDomain, byte[])}.
+     */
+    public boolean accepts(ClassLoader loader, String className, ProtectionDomain protectionDomain) {
+        // Bootstrap, platform and application classes
+        if (loader == null || className == null || systemLoaders.contains(loader))
+            return false;
+
+        for (String skipPackage : skipPackages) {
+            if (className.startsWith(skipPackage))
+                return false;
+        }
+
+        return isPluginJar(protectionDomain);
+    }
+
+    /**
+     * Checks whether the given {@link ProtectionDomain} belongs to a jar in the plugins directory.
+     */
+    private boolean isPluginJar(ProtectionDomain protectionDomain) {
+        if (protectionDomain == null)
+            return false;
+        CodeSource codeSource = protectionDomain.getCodeSource();
+        if (codeSource == null)
+            return false;
+        URL location = codeSource.getLocation();
+        if (location == null || !"file".equals(location.getProtocol()))
+            return false;
+
+        String path = location.getPath();
+        if (!path.endsWith(".jar"))
+            return false;
+        // Also accepts subdirectories, such as the remapped plugins of Paper
+        for (String pluginsDirectoryPath : pluginsDirectoryPaths) {
+            if (path.startsWith(pluginsDirectoryPath))
+                return true;
+        }
+        return false;
+    }
+
+    private static String urlPath(File directory) {
+        try {
+            String path = directory.toURI().toURL().getPath();
+            return path.endsWith("/") ? path : path + "/";
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+}
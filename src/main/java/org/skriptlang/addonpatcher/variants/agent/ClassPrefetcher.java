@@ -0,0 +1,206 @@
+package org.skriptlang.addonpatcher.variants.agent;
+
+import org.skriptlang.addonpatcher.patcher.PatchIndex;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.variants.PluginTriage;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Patches the classes of the plugin jars on background threads as soon as the agent is attached,
+ * so that the {@link Agent.ClassPatcher} can usually take the result instead of patching a class while it's loaded.
+ * Classes that are loaded before they're prefetched are patched while loading, as before.
+ * <p>
+ * Results are identified by the class name, and the CRC-32 and size of the original class,
+ * which are stored in the jar and compared to the bytes given to the transformer.
+ * A result is removed once it's taken, since a class is only defined once by its class loader.
+ * While prefetching is still running, the taken classes are remembered so they aren't prefetched again.
+ */
+public class ClassPrefetcher {
+
+    /**
+     * The system property used to disable prefetching, by setting it to false.
+     */
+    public static final String PREFETCH_PROPERTY = "addonpatcher.agent.prefetch";
+
+    /**
+     * The maximum total size of the patched classes waiting to be taken, prefetching stops when it's reached
+     */
+    private static final long MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Stored for classes that don't need patching
+     */
+    private static final byte[] CLEAN = new byte[0];
+
+    /**
+     * Patches a single class, like {@link Patcher#patchClass(byte[], AtomicBoolean)}.
+     */
+    @FunctionalInterface
+    public interface ClassPatch {
+        byte[] patch(byte[] classBytes, AtomicBoolean used);
+    }
+
+    private final Logger logger;
+    private final Map<String, byte[]> results = new ConcurrentHashMap<>();
+    /**
+     * The total size of the patched classes in {@link #results}
+     */
+    private final AtomicLong bytes = new AtomicLong();
+    /**
+     * The keys of the classes that were taken (or loaded before being prefetched), so they aren't prefetched anymore.
+     * Only filled while jars are still being prefetched, and cleared once they're all done.
+     */
+    private final Set<String> taken = ConcurrentHashMap.newKeySet();
+    /**
+     * The amount of jars that are still being prefetched
+     */
+    private final AtomicInteger remainingJars = new AtomicInteger();
+
+    public ClassPrefetcher(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(PREFETCH_PROPERTY));
+    }
+
+    /**
+     * Starts prefetching the classes of the Skript addons in the given plugins directory,
+     * on at most the given amount of daemon threads, which stop once all jars are done.
+     */
+    public void start(File pluginsDirectory, int threads, ClassPatch patch) {
+        File[] files = pluginsDirectory.listFiles();
+        if (files == null)
+            return;
+
+        PluginTriage triage = PluginTriage.fromSystemProperties();
+        List<File> jarFiles = new ArrayList<>();
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().endsWith(".jar"))
+                continue;
+            try {
+                if (!triage.isCandidate(file))
+                    continue;
+            } catch (IOException ignored) {
+                // Not readable right now, the jar is prefetched anyway
+            }
+            jarFiles.add(file);
+        }
+        if (jarFiles.isEmpty())
+            return;
+        jarFiles.sort(Comparator.comparing(File::getName));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jarFiles.size()), runnable -> {
+            Thread thread = new Thread(runnable, "AddonPatcher Prefetch #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        remainingJars.set(jarFiles.size());
+        for (File jarFile : jarFiles) {
+            executor.execute(() -> {
+                try {
+                    prefetch(jarFile, patch);
+                } finally {
+                    if (remainingJars.decrementAndGet() == 0)
+                        taken.clear(); // Nothing is added to the results anymore
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void prefetch(File jarFile, ClassPatch patch) {
+        // Not mapped, the jar may be replaced while the server keeps running
+        try (ZipArchive archive = ZipArchive.open(jarFile, false)) {
+            if (PatchIndex.isCurrent(archive))
+                return;
+
+            for (ZipArchive.Entry entry : archive.getEntries()) {
+                String name = entry.getName();
+                if (!name.endsWith(".class"))
+                    continue;
+                if (bytes.get() > MAX_BYTES)
+                    return;
+
+                String key = key(name.substring(0, name.length() - ".class".length()), entry.getCrc(), entry.getSize());
+                if (results.containsKey(key) || taken.contains(key))
+                    continue;
+                byte[] classBytes = archive.read(entry);
+                if (!Patcher.mayNeedPatching(classBytes))
+                    continue; // The transformer doesn't look these up
+
+                AtomicBoolean used = new AtomicBoolean();
+                byte[] patched;
+                try {
+                    patched = patch.patch(classBytes, used);
+                } catch (Exception e) {
+                    // The class will be patched while it's loaded, which reports the problem
+                    logger.log(Level.FINE, "Couldn't prefetch " + name + " in " + jarFile, e);
+                    continue;
+                }
+                byte[] result = used.get() ? patched : CLEAN;
+                if (results.putIfAbsent(key, result) != null)
+                    continue;
+                if (result != CLEAN)
+                    bytes.addAndGet(result.length);
+                // Taken while it was being patched, it won't be taken again
+                if (taken.contains(key) && results.remove(key, result) && result != CLEAN)
+                    bytes.addAndGet(-result.length);
+            }
+        } catch (Exception e) {
+            // The classes will be patched while they're loaded, which reports any problems
+            logger.log(Level.FINE, "Couldn't prefetch " + jarFile, e);
+        }
+    }
+
+    /**
+     * Takes the prefetched result of the given class, which must pass {@link Patcher#mayNeedPatching(byte[])}.
+     * Returns null if the class wasn't prefetched (yet), and the given class bytes if the class doesn't need patching.
+     * The {@link AtomicBoolean} is set to true if the class was patched.
+     */
+    public byte[] take(String className, byte[] classBytes, AtomicBoolean used) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(classBytes, 0, classBytes.length);
+
+        String key = key(className, crc32.getValue(), classBytes.length);
+        if (remainingJars.get() > 0) {
+            // Added before removing the result, so a prefetch finishing concurrently either sees it or is removed here
+            taken.add(key);
+            if (remainingJars.get() == 0)
+                taken.remove(key); // Cleared concurrently
+        }
+
+        byte[] result = results.remove(key);
+        if (result == null)
+            return null;
+        if (result == CLEAN)
+            return classBytes;
+
+        bytes.addAndGet(-result.length);
+        used.set(true);
+        return result;
+    }
+
+    private static String key(String className, long crc, long size) {
+        return className + '#' + Long.toHexString(crc) + '#' + size;
+    }
+
+}
@@ -0,0 +1,159 @@
+package org.skriptlang.addonpatcher.variants.agent;
+
+import org.skriptlang.addonpatcher.patcher.PatchIndex;
+import org.skriptlang.addonpatcher.patcher.Patcher;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps track of which plugin jars reference anything the patcher could replace,
+ * so that the classes of jars that don't can be skipped without looking at them.
+ * <p>
+ * Verdicts are stored per {@link ClassLoader}, weakly, so they disappear when a plugin is unloaded.
+ * Java 8 has no concurrent weak map, so the map is synchronized, but the verdicts of the last used class loader
+ * are looked up without the lock first: plugin classes are loaded by their plugin's class loader,
+ * so consecutive classes almost always have the same one.
+ */
+public class JarVerdicts {
+
+    private final Map<ClassLoader, Map<String, Verdict>> verdicts = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * The verdicts of the last used class loader, null until the first lookup
+     */
+    private volatile LoaderVerdicts last;
+
+    /**
+     * Returns the verdict for the given jar loaded by the given {@link ClassLoader},
+     * the jar isn't scanned until {@link Verdict#mayNeedPatching()} is called.
+     */
+    public Verdict get(ClassLoader loader, URL location) {
+        Map<String, Verdict> byLocation;
+        LoaderVerdicts last = this.last;
+        if (loader != null && last != null && last.loader.get() == loader) {
+            byLocation = last.byLocation;
+        } else {
+            byLocation = verdicts.computeIfAbsent(loader, k -> new ConcurrentHashMap<>(1));
+            if (loader != null)
+                this.last = new LoaderVerdicts(loader, byLocation);
+        }
+
+        Verdict verdict = byLocation.get(location.getPath());
+        if (verdict == null)
+            verdict = byLocation.computeIfAbsent(location.getPath(), k -> new Verdict(location));
+        return verdict;
+    }
+
+    /**
+     * The verdicts of a single class loader, which is only referenced weakly so it can still be unloaded
+     */
+    private static class LoaderVerdicts {
+        private final WeakReference<ClassLoader> loader;
+        private final Map<String, Verdict> byLocation;
+
+        private LoaderVerdicts(ClassLoader loader, Map<String, Verdict> byLocation) {
+            this.loader = new WeakReference<>(loader);
+            this.byLocation = byLocation;
+        }
+    }
+
+    /**
+     * Whether a single plugin jar requires patching.
+     */
+    public static class Verdict {
+
+        private final URL location;
+        private final AtomicBoolean reported = new AtomicBoolean();
+        /**
+         * Null until {@link #getName()} is first called
+         */
+        private volatile String name;
+        /**
+         * Null until the jar is scanned
+         */
+        private volatile Boolean mayNeedPatching;
+
+        private Verdict(URL location) {
+            this.location = location;
+        }
+
+        /**
+         * Whether any class in this jar passes {@link Patcher#mayNeedPatching(byte[])},
+         * false if the jar has a {@link PatchIndex} of the current version.
+         * The jar is scanned on the first call, if it can't be read this returns true.
+         */
+        public boolean mayNeedPatching() {
+            Boolean result = mayNeedPatching;
+            if (result == null) {
+                synchronized (this) {
+                    result = mayNeedPatching;
+                    if (result == null) {
+                        result = scan();
+                        mayNeedPatching = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private boolean scan() {
+            // Not mapped, the jar may be replaced while the server keeps running
+            try (ZipArchive archive = ZipArchive.open(getFile(), false)) {
+                // Already patched by the Replacer or Java variant
+                if (PatchIndex.isCurrent(archive))
+                    return false;
+                for (ZipArchive.Entry entry : archive.getEntries()) {
+                    if (!entry.getName().endsWith(".class"))
+                        continue;
+                    if (Patcher.mayNeedPatching(archive.read(entry)))
+                        return true;
+                }
+                return false;
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                // Can't tell, look at every class instead
+                return true;
+            }
+        }
+
+        /**
+         * Returns true only the first time it's called, so the jar is reported once.
+         */
+        public boolean markReported() {
+            return reported.compareAndSet(false, true);
+        }
+
+        /**
+         * The file name of the jar, or its URL if it can't be converted to a file.
+         */
+        public String getName() {
+            String name = this.name;
+            if (name == null) {
+                try {
+                    name = getFile().getName();
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    name = location.toString();
+                }
+                this.name = name;
+            }
+            return name;
+        }
+
+        /**
+         * The jar file this verdict is about.
+         */
+        public File getFile() throws URISyntaxException {
+            return new File(location.toURI());
+        }
+
+    }
+
+}
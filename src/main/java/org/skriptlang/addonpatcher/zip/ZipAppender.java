@@ -0,0 +1,233 @@
+package org.skriptlang.addonpatcher.zip;
+
+import org.skriptlang.addonpatcher.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends to the end of an existing file, such that the file can be restored to its original state
+ * until the appended data is committed, even if the process is killed halfway.
+ * <p>
+ * Before the first byte is appended, the original size of the file (and its last bytes) are written to a journal
+ * next to it. Committing forces the appended data to the disk, and then deletes the journal.
+ * As long as the journal exists, {@link #recover(File)} truncates the file back to its original size.
+ * Nothing is written, not even the journal, if nothing is appended.
+ *
+ * @see ZipArchiveWriter#ZipArchiveWriter(OutputStream, long)
+ */
+public class ZipAppender implements Closeable {
+
+    private static final String JOURNAL_SUFFIX = ".append-journal";
+    private static final String JOURNAL_HEADER = "AddonPatcher append journal v1";
+
+    /**
+     * The amount of bytes before the original end of the file stored in the journal,
+     * so that a file that was replaced after a crash isn't truncated
+     */
+    private static final int TAIL_SIZE = 64;
+
+    private final Path path;
+    private final Path journalPath;
+    private final long size;
+    private final AppendingOutputStream outputStream = new AppendingOutputStream();
+
+    /**
+     * Null until the first byte is appended
+     */
+    private FileChannel channel;
+    private boolean failed;
+    private boolean committed;
+
+    /**
+     * @param size the size of the file, which must not change before anything is appended
+     */
+    public ZipAppender(File file, long size) {
+        this.path = file.toPath().toAbsolutePath();
+        this.journalPath = journalPath(path);
+        this.size = size;
+    }
+
+    /**
+     * Restores the given file if appending to it was interrupted, returns whether it was.
+     */
+    public static boolean recover(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        Path journalPath = journalPath(path);
+        if (!Files.exists(journalPath))
+            return false;
+
+        // The journal is complete before anything is appended, so an incomplete one can be ignored
+        List<String> lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+        if (lines.size() >= 3 && lines.get(0).equals(JOURNAL_HEADER)) {
+            try {
+                truncate(path, Long.parseLong(lines.get(1)), lines.get(2));
+            } catch (NumberFormatException | NoSuchFileException ignored) {
+                // Incomplete journal, or the file was removed
+            }
+        }
+        Files.delete(journalPath);
+        return true;
+    }
+
+    /**
+     * Truncates the given file to the given size, if its bytes before that size are still the ones in the journal
+     */
+    private static void truncate(Path path, long size, String tail) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < size || !tail.equals(readTail(channel, size)))
+                return; // Not the file that was appended to
+            channel.truncate(size);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * The hexadecimal bytes right before the given position of the given file
+     */
+    private static String readTail(FileChannel channel, long end) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(end, TAIL_SIZE));
+        long position = end - tail.capacity();
+        while (tail.hasRemaining()) {
+            int read = channel.read(tail, position + tail.position());
+            if (read < 0)
+                throw new IOException("Unexpected end of file");
+        }
+        return Util.toHex(tail.array());
+    }
+
+    private static Path journalPath(Path path) {
+        return path.resolveSibling(path.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * The {@link OutputStream} appending to the file.
+     * Closing it only flushes it, the appended data is kept by {@link #commit()}.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Makes the appended data permanent.
+     *
+     * @throws IOException if the data couldn't be written completely,
+     * in which case the file is restored once this appender is closed
+     */
+    public void commit() throws IOException {
+        if (failed)
+            throw new IOException("Couldn't append to " + path);
+        if (channel != null) {
+            outputStream.flush();
+            channel.force(true);
+            channel.close();
+            Files.delete(journalPath);
+        }
+        committed = true;
+    }
+
+    /**
+     * Restores the file if the appended data wasn't committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed || channel == null)
+            return;
+        try {
+            // Anything still buffered is discarded with the rest
+            channel.truncate(size);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.delete(journalPath);
+    }
+
+    /**
+     * Writes the journal and opens the file, before the first byte is appended
+     */
+    private void open() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() != size)
+                throw new IOException(path + " changed while it was being appended to");
+
+            String journalContent = JOURNAL_HEADER + "\n" + size + "\n" + readTail(channel, size) + "\n";
+            try (FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(journalContent.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                journal.force(true);
+            }
+            channel.position(size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the file on the first write, and remembers whether anything couldn't be written
+     */
+    private class AppendingOutputStream extends FilterOutputStream {
+
+        private AppendingOutputStream() {
+            super(null);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (committed)
+                throw new IOException("Already committed");
+            try {
+                if (out == null) {
+                    open();
+                    out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+                }
+                out.write(b, off, len);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out == null)
+                return;
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
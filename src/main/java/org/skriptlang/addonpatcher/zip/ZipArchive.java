@@ -0,0 +1,496 @@
+package org.skriptlang.addonpatcher.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip (jar) file, which gives access to the compressed data of its entries,
+ * so that unchanged entries can be copied to another zip file without decompressing and recompressing them.
+ * Unlike {@link java.util.jar.JarFile}, signatures aren't verified.
+ * <p>
+ * The file is memory-mapped where possible, so entry data is read straight from the page cache.
+ * On Windows, mapped files can't be replaced until the mapping is garbage collected,
+ * so there (and for files over 2 GiB) positional reads are used instead.
+ * A mapping outlives the archive until it's garbage collected, and reading a mapped file that another process
+ * truncated crashes the JVM, so long-running readers should use positional reads, see {@link #open(File, boolean)}.
+ * Either way, reading from multiple threads at once is safe.
+ *
+ * @see ZipArchiveWriter
+ */
+public class ZipArchive implements Closeable {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    static final int FLAG_UTF8 = 1 << 11;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final boolean MAP = !System.getProperty("os.name", "").startsWith("Windows");
+
+    /**
+     * Inflaters and input buffers reused by {@link #read(Entry)}, to avoid allocating them for every entry
+     */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> INPUT_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private final File file;
+    private final FileChannel channel;
+    /**
+     * The whole file, null if it isn't memory-mapped
+     */
+    private final ByteBuffer mapped;
+    private final List<Entry> entries;
+    /**
+     * The offset of the central directory, set while it's read
+     */
+    private long centralOffset;
+
+    private ZipArchive(File file, FileChannel channel, boolean map) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        long size = channel.size();
+        this.mapped = map && MAP && size > 0 && size <= Integer.MAX_VALUE
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                : null;
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+    }
+
+    /**
+     * Opens the given zip file, memory-mapping it where possible.
+     */
+    public static ZipArchive open(File file) throws IOException {
+        return open(file, true);
+    }
+
+    /**
+     * Opens the given zip file, memory-mapping it only if the given boolean is true (and where possible).
+     * <p>
+     * Files that may be replaced in place while the JVM keeps running (e.g. plugin jars updated while the server runs)
+     * shouldn't be mapped by long-running processes: the mapping can't be released before it's garbage collected,
+     * and reading it after the file was truncated throws an {@link InternalError} or crashes the JVM with a SIGBUS.
+     */
+    public static ZipArchive open(File file, boolean map) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ZipArchive(file, channel, map);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The file this archive was opened from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The size of the zip file in bytes.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * All entries, in the order of the central directory.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Finds the entry with the given name, or null if there isn't one.
+     */
+    public Entry getEntry(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name))
+                return entry;
+        }
+        return null;
+    }
+
+    /**
+     * The amount of bytes in the file that don't belong to any entry or the central directory,
+     * e.g. entries that were replaced by appending new ones, see {@link ZipArchiveWriter#ZipArchiveWriter(java.io.OutputStream, long)}.
+     * Data descriptors are counted as unused.
+     */
+    public long getUnusedBytes() throws IOException {
+        long used = channel.size() - centralOffset;
+        for (Entry entry : entries) {
+            used += getDataOffset(entry) - entry.localHeaderOffset + entry.compressedSize;
+        }
+        return Math.max(channel.size() - used, 0);
+    }
+
+    /**
+     * Reads the data of the given entry, as stored in the zip file.
+     */
+    public byte[] readRaw(Entry entry) throws IOException {
+        ByteBuffer raw = rawData(entry);
+        byte[] bytes = new byte[raw.remaining()];
+        raw.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the data of the given entry, as stored in the zip file.
+     * If the file is memory-mapped, this is a view of the mapping, without copying any data.
+     */
+    public ByteBuffer rawData(Entry entry) throws IOException {
+        return slice(getDataOffset(entry), toIntSize(entry.compressedSize));
+    }
+
+    /**
+     * Reads and decompresses the data of the given entry,
+     * into an array of the size given by the central directory.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer raw = rawData(entry);
+        if (entry.method == STORED) {
+            byte[] data = new byte[raw.remaining()];
+            raw.get(data);
+            return data;
+        }
+        if (entry.method != DEFLATED)
+            throw new ZipException("Unsupported compression method " + entry.method + " of entry " + entry.getName());
+
+        // Inflater only takes arrays on Java 8
+        int rawLength = raw.remaining();
+        byte[] input = INPUT_BUFFER.get();
+        if (input.length < rawLength) {
+            input = new byte[Math.max(rawLength, input.length * 2)];
+            INPUT_BUFFER.set(input);
+        }
+        raw.get(input, 0, rawLength);
+
+        byte[] data = new byte[toIntSize(entry.size)];
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(input, 0, rawLength);
+            int length = 0;
+            while (length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += inflated;
+            }
+            if (length != data.length)
+                throw new ZipException("Invalid size of entry " + entry.getName());
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed data of entry " + entry.getName() + ": " + e.getMessage());
+        } finally {
+            inflater.reset();
+        }
+        return data;
+    }
+
+    /**
+     * Copies the data of the given entry, as stored in the zip file, to the given {@link WritableByteChannel}.
+     */
+    void transferRaw(Entry entry, WritableByteChannel target) throws IOException {
+        if (mapped != null) {
+            ByteBuffer raw = rawData(entry);
+            while (raw.hasRemaining()) {
+                target.write(raw);
+            }
+            return;
+        }
+
+        long position = getDataOffset(entry);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0)
+                throw new EOFException("Unexpected end of zip file in entry " + entry.getName());
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Reads the extra field of the local header of the given entry,
+     * which may differ from the one in the central directory.
+     */
+    byte[] readLocalExtra(Entry entry) throws IOException {
+        ByteBuffer header = readLocalHeader(entry);
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        ByteBuffer extra = slice(entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength, extraLength);
+        byte[] bytes = new byte[extraLength];
+        extra.get(bytes);
+        return bytes;
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset < 0) {
+            ByteBuffer header = readLocalHeader(entry);
+            int nameLength = header.getShort(26) & 0xFFFF;
+            int extraLength = header.getShort(28) & 0xFFFF;
+            dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    private ByteBuffer readLocalHeader(Entry entry) throws IOException {
+        ByteBuffer header = slice(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("Invalid local header of entry " + entry.getName());
+        return header;
+    }
+
+    /**
+     * Returns a little-endian buffer containing the given range of the file, positioned at 0.
+     * If the file is memory-mapped, this is a view of the mapping.
+     */
+    private ByteBuffer slice(long position, int length) throws IOException {
+        if (mapped != null) {
+            if (position < 0 || position + length > mapped.capacity())
+                throw new EOFException("Unexpected end of zip file");
+            ByteBuffer duplicate = mapped.duplicate();
+            // Casts to Buffer, since ByteBuffer only overrides these methods since Java 9
+            ((Buffer) duplicate).position((int) position);
+            ((Buffer) duplicate).limit((int) position + length);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException("Unexpected end of zip file");
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+
+        // The end of central directory record is at the end of the file, followed by a comment of at most 64 KiB
+        int tailSize = (int) Math.min(fileSize, END_SIZE + 0xFFFF);
+        ByteBuffer tail = slice(fileSize - tailSize, tailSize);
+
+        int endOffset = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE && i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset < 0)
+            throw new ZipException("zip END header not found");
+
+        long entryCount = tail.getShort(endOffset + 10) & 0xFFFF;
+        long centralSize = tail.getInt(endOffset + 12) & 0xFFFFFFFFL;
+        long centralOffset = tail.getInt(endOffset + 16) & 0xFFFFFFFFL;
+
+        // Zip64 end of central directory, located by the record right before the regular one
+        int locatorOffset = endOffset - ZIP64_LOCATOR_SIZE;
+        if (locatorOffset >= 0 && tail.getInt(locatorOffset) == ZIP64_LOCATOR_SIGNATURE) {
+            ByteBuffer zip64End = slice(tail.getLong(locatorOffset + 8), 56);
+            if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+                throw new ZipException("Invalid zip64 END header");
+            entryCount = zip64End.getLong(32);
+            centralSize = zip64End.getLong(40);
+            centralOffset = zip64End.getLong(48);
+        }
+
+        if (centralSize > Integer.MAX_VALUE || centralOffset + centralSize > fileSize)
+            throw new ZipException("Invalid central directory");
+        this.centralOffset = centralOffset;
+        ByteBuffer central = slice(centralOffset, (int) centralSize);
+
+        List<Entry> entries = new ArrayList<>((int) Math.min(entryCount, 0xFFFF));
+        int offset = 0;
+        while (offset + CENTRAL_HEADER_SIZE <= centralSize) {
+            if (central.getInt(offset) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Invalid central directory header");
+
+            Entry entry = new Entry();
+            entry.versionMadeBy = central.getShort(offset + 4) & 0xFFFF;
+            entry.versionNeeded = central.getShort(offset + 6) & 0xFFFF;
+            entry.flags = central.getShort(offset + 8) & 0xFFFF;
+            entry.method = central.getShort(offset + 10) & 0xFFFF;
+            entry.time = central.getShort(offset + 12) & 0xFFFF;
+            entry.date = central.getShort(offset + 14) & 0xFFFF;
+            entry.crc = central.getInt(offset + 16) & 0xFFFFFFFFL;
+            entry.compressedSize = central.getInt(offset + 20) & 0xFFFFFFFFL;
+            entry.size = central.getInt(offset + 24) & 0xFFFFFFFFL;
+            int nameLength = central.getShort(offset + 28) & 0xFFFF;
+            int extraLength = central.getShort(offset + 30) & 0xFFFF;
+            int commentLength = central.getShort(offset + 32) & 0xFFFF;
+            entry.internalAttributes = central.getShort(offset + 36) & 0xFFFF;
+            entry.externalAttributes = central.getInt(offset + 38);
+            entry.localHeaderOffset = central.getInt(offset + 42) & 0xFFFFFFFFL;
+
+            int position = offset + CENTRAL_HEADER_SIZE;
+            if (position + nameLength + extraLength + commentLength > centralSize)
+                throw new ZipException("Invalid central directory header");
+            entry.rawName = bytes(central, position, nameLength);
+            entry.extra = bytes(central, position + nameLength, extraLength);
+            entry.rawComment = bytes(central, position + nameLength + extraLength, commentLength);
+            Charset charset = (entry.flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            // Jar files are practically always UTF-8, even without the flag
+            entry.name = new String(entry.rawName, StandardCharsets.UTF_8);
+            entry.comment = commentLength == 0 ? null : new String(entry.rawComment, charset);
+
+            readZip64Extra(entry);
+
+            entries.add(entry);
+            offset = position + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Replaces the sizes and offset that don't fit in the central header by the ones from the zip64 extra field.
+     */
+    private static void readZip64Extra(Entry entry) throws ZipException {
+        if (entry.size != 0xFFFFFFFFL && entry.compressedSize != 0xFFFFFFFFL && entry.localHeaderOffset != 0xFFFFFFFFL)
+            return;
+
+        ByteBuffer extra = ByteBuffer.wrap(entry.extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (extra.remaining() >= 4) {
+            int id = extra.getShort() & 0xFFFF;
+            int length = extra.getShort() & 0xFFFF;
+            if (length > extra.remaining())
+                break;
+            if (id == ZIP64_EXTRA_ID) {
+                int end = extra.position() + length;
+                if (entry.size == 0xFFFFFFFFL && extra.position() + 8 <= end)
+                    entry.size = extra.getLong();
+                if (entry.compressedSize == 0xFFFFFFFFL && extra.position() + 8 <= end)
+                    entry.compressedSize = extra.getLong();
+                if (entry.localHeaderOffset == 0xFFFFFFFFL && extra.position() + 8 <= end)
+                    entry.localHeaderOffset = extra.getLong();
+                return;
+            }
+            ((Buffer) extra).position(extra.position() + length);
+        }
+        throw new ZipException("Missing zip64 extra field of entry " + entry.getName());
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    private static int toIntSize(long size) throws ZipException {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry too large: " + size + " bytes");
+        return (int) size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * An entry of a {@link ZipArchive}, as described by the central directory.
+     */
+    public static class Entry {
+
+        int versionMadeBy;
+        int versionNeeded;
+        int flags;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressedSize;
+        long size;
+        int internalAttributes;
+        int externalAttributes;
+        long localHeaderOffset;
+        byte[] rawName;
+        byte[] extra;
+        byte[] rawComment;
+        String name;
+        String comment;
+
+        /**
+         * The offset of the entry data, -1 until the local header is read
+         */
+        volatile long dataOffset = -1;
+
+        Entry() {
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        /**
+         * The size of the entry data, decompressed.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * The size of the entry data, as stored in the zip file.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * The compression method, usually either {@link #STORED} or {@link #DEFLATED}.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+    }
+
+}
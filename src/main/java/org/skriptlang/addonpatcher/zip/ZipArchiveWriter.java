@@ -0,0 +1,323 @@
+package org.skriptlang.addonpatcher.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import static org.skriptlang.addonpatcher.zip.ZipArchive.*;
+
+/**
+ * Writes a zip (jar) file, consisting of entries copied as-is from a {@link ZipArchive},
+ * and entries with new data, which are compressed by this writer.
+ * <p>
+ * A writer can also append to an existing zip file: entries that stay the same are kept where they are,
+ * new entries are written after the end of the file, followed by a new central directory describing both.
+ * The data of the entries that weren't kept, and the old central directory, remain in the file unused.
+ * <p>
+ * Entries never use data descriptors, and sizes and offsets over 4 GiB aren't supported.
+ */
+public class ZipArchiveWriter implements Closeable {
+
+    /**
+     * Extra field IDs of timestamps, which are outdated once the data of an entry is replaced
+     */
+    private static final int EXTENDED_TIMESTAMP_EXTRA_ID = 0x5455;
+    private static final int NTFS_EXTRA_ID = 0x000a;
+
+    private final OutputStream outputStream;
+    private final WritableByteChannel channel;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    /**
+     * The size of the zip file appended to, 0 if a new zip file is written
+     */
+    private final long start;
+    private long position;
+    private long entryCount = 0;
+
+    /**
+     * The given {@link OutputStream} is closed when this writer is closed.
+     */
+    public ZipArchiveWriter(OutputStream outputStream) {
+        this(outputStream, 0);
+    }
+
+    /**
+     * Appends to an existing zip file of the given size, the given {@link OutputStream} must write to its end.
+     * Its entries are only part of the result if they're {@link #keep(Entry) kept}.
+     * If no entry data is written at all, closing this writer doesn't write anything either,
+     * so the zip file stays as it was.
+     * <p>
+     * The given {@link OutputStream} is closed when this writer is closed.
+     */
+    public ZipArchiveWriter(OutputStream outputStream, long size) {
+        this.outputStream = outputStream;
+        this.channel = Channels.newChannel(outputStream);
+        this.start = size;
+        this.position = size;
+    }
+
+    /**
+     * Keeps the given entry of the zip file that is appended to where it is, without reading it.
+     */
+    public void keep(Entry entry) throws IOException {
+        if (start == 0)
+            throw new IllegalStateException("Only entries of the zip file appended to can be kept");
+        checkName(entry.name);
+        checkSize(entry.compressedSize);
+        checkSize(entry.size);
+
+        writeCentralHeader(entry.versionMadeBy, entry.versionNeeded, entry.flags, entry.method, entry.time, entry.date,
+                entry.crc, entry.compressedSize, entry.size, entry.rawName, removeExtra(entry.extra, ZIP64_EXTRA_ID),
+                entry.rawComment, entry.internalAttributes, entry.externalAttributes, entry.localHeaderOffset);
+    }
+
+    /**
+     * Copies the given entry from the given {@link ZipArchive}, without decompressing it.
+     */
+    public void copy(ZipArchive archive, Entry entry) throws IOException {
+        checkName(entry.name);
+        byte[] localExtra = removeExtra(archive.readLocalExtra(entry), ZIP64_EXTRA_ID);
+        byte[] centralExtra = removeExtra(entry.extra, ZIP64_EXTRA_ID);
+        int flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+
+        long offset = position;
+        writeLocalHeader(entry.versionNeeded, flags, entry.method, entry.time, entry.date,
+                entry.crc, entry.compressedSize, entry.size, entry.rawName, localExtra);
+        archive.transferRaw(entry, channel);
+        position += entry.compressedSize;
+
+        writeCentralHeader(entry.versionMadeBy, entry.versionNeeded, flags, entry.method, entry.time, entry.date,
+                entry.crc, entry.compressedSize, entry.size, entry.rawName, centralExtra, entry.rawComment,
+                entry.internalAttributes, entry.externalAttributes, offset);
+    }
+
+    /**
+     * Writes the given entry with new data, compressed by this writer.
+     * The name, attributes and extra fields are copied from the given entry,
+     * the modification time is set to the current time.
+     *
+     * @param comment the new comment of the entry, or null to keep the old one
+     */
+    public void write(Entry template, byte[] data, String comment) throws IOException {
+        checkName(template.name);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        byte[] compressed = deflate(data);
+
+        // Timestamps in extra fields would contradict the new modification time
+        byte[] extra = removeExtra(template.extra, ZIP64_EXTRA_ID, EXTENDED_TIMESTAMP_EXTRA_ID, NTFS_EXTRA_ID);
+        byte[] rawComment = comment == null ? template.rawComment : comment.getBytes(StandardCharsets.UTF_8);
+        int flags = (template.flags & FLAG_UTF8) | (comment == null ? 0 : FLAG_UTF8);
+        int versionNeeded = Math.max(20, template.versionNeeded);
+
+        LocalDateTime now = LocalDateTime.now();
+        int time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        int date = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+
+        long offset = position;
+        writeLocalHeader(versionNeeded, flags, DEFLATED, time, date,
+                crc32.getValue(), compressed.length, data.length, template.rawName, extra);
+        outputStream.write(compressed);
+        position += compressed.length;
+
+        writeCentralHeader(template.versionMadeBy, versionNeeded, flags, DEFLATED, time, date,
+                crc32.getValue(), compressed.length, data.length, template.rawName, extra, rawComment,
+                template.internalAttributes, template.externalAttributes, offset);
+    }
+
+    /**
+     * Writes a new entry with the given name and data, compressing the data.
+     */
+    public void write(String name, byte[] data) throws IOException {
+        Entry template = new Entry();
+        template.versionMadeBy = 20;
+        template.versionNeeded = 20;
+        template.flags = FLAG_UTF8;
+        template.name = name;
+        template.rawName = name.getBytes(StandardCharsets.UTF_8);
+        template.extra = new byte[0];
+        template.rawComment = new byte[0];
+        write(template, data, null);
+    }
+
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    private void checkName(String name) throws ZipException {
+        if (!names.add(name))
+            throw new ZipException("duplicate entry: " + name);
+    }
+
+    private void writeLocalHeader(int versionNeeded, int flags, int method, int time, int date,
+                                  long crc, long compressedSize, long size, byte[] name, byte[] extra) throws IOException {
+        checkSize(compressedSize);
+        checkSize(size);
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length + extra.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) versionNeeded);
+        header.putShort((short) flags);
+        header.putShort((short) method);
+        header.putShort((short) time);
+        header.putShort((short) date);
+        header.putInt((int) crc);
+        header.putInt((int) compressedSize);
+        header.putInt((int) size);
+        header.putShort((short) name.length);
+        header.putShort((short) extra.length);
+        header.put(name);
+        header.put(extra);
+
+        outputStream.write(header.array());
+        position += header.capacity();
+    }
+
+    private void writeCentralHeader(int versionMadeBy, int versionNeeded, int flags, int method, int time, int date,
+                                    long crc, long compressedSize, long size, byte[] name, byte[] extra, byte[] comment,
+                                    int internalAttributes, int externalAttributes, long offset) throws IOException {
+        checkSize(offset);
+
+        ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + name.length + extra.length + comment.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) versionMadeBy);
+        header.putShort((short) versionNeeded);
+        header.putShort((short) flags);
+        header.putShort((short) method);
+        header.putShort((short) time);
+        header.putShort((short) date);
+        header.putInt((int) crc);
+        header.putInt((int) compressedSize);
+        header.putInt((int) size);
+        header.putShort((short) name.length);
+        header.putShort((short) extra.length);
+        header.putShort((short) comment.length);
+        header.putShort((short) 0); // disk number
+        header.putShort((short) internalAttributes);
+        header.putInt(externalAttributes);
+        header.putInt((int) offset);
+        header.put(name);
+        header.put(extra);
+        header.put(comment);
+
+        centralDirectory.write(header.array());
+        entryCount++;
+    }
+
+    private static void checkSize(long size) throws ZipException {
+        if (size >= 0xFFFFFFFFL)
+            throw new ZipException("Entries and offsets over 4 GiB are not supported");
+    }
+
+    /**
+     * Returns a copy of the given extra field data, without the fields with the given IDs.
+     */
+    private static byte[] removeExtra(byte[] extra, int... ids) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(extra.length);
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        outer:
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int id = buffer.getShort() & 0xFFFF;
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining())
+                break; // Malformed, drop the rest
+            ((Buffer) buffer).position(buffer.position() + length);
+            for (int removed : ids) {
+                if (id == removed)
+                    continue outer;
+            }
+            result.write(extra, start, 4 + length);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * The amount of bytes written so far, the size of the zip file (or of the appended part) once this writer is closed.
+     */
+    public long getBytesWritten() {
+        return position - start;
+    }
+
+    /**
+     * Writes the central directory and closes the underlying {@link OutputStream}.
+     * When appending, nothing is written if no entry data was.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (start != 0 && position == start)
+                return; // Nothing appended, leave the zip file as it was
+
+            long centralOffset = position;
+            long centralSize = centralDirectory.size();
+            centralDirectory.writeTo(outputStream);
+            position += centralSize;
+
+            if (entryCount >= 0xFFFF) {
+                // Too many entries for the regular end record, add zip64 end record and locator
+                long zip64EndOffset = position;
+                ByteBuffer zip64End = ByteBuffer.allocate(56 + ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                zip64End.putInt(ZIP64_END_SIGNATURE);
+                zip64End.putLong(44); // size of the remaining record
+                zip64End.putShort((short) 45); // version made by
+                zip64End.putShort((short) 45); // version needed
+                zip64End.putInt(0); // disk number
+                zip64End.putInt(0); // disk with central directory
+                zip64End.putLong(entryCount);
+                zip64End.putLong(entryCount);
+                zip64End.putLong(centralSize);
+                zip64End.putLong(centralOffset);
+
+                zip64End.putInt(ZIP64_LOCATOR_SIGNATURE);
+                zip64End.putInt(0); // disk with zip64 end record
+                zip64End.putLong(zip64EndOffset);
+                zip64End.putInt(1); // total disks
+                outputStream.write(zip64End.array());
+                position += zip64End.capacity();
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_SIGNATURE);
+            end.putShort((short) 0); // disk number
+            end.putShort((short) 0); // disk with central directory
+            end.putShort((short) Math.min(entryCount, 0xFFFF));
+            end.putShort((short) Math.min(entryCount, 0xFFFF));
+            end.putInt((int) centralSize);
+            end.putInt((int) centralOffset);
+            end.putShort((short) 0); // comment length
+            outputStream.write(end.array());
+            position += END_SIZE;
+        } finally {
+            deflater.end();
+            outputStream.close();
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.skriptlang.addonpatcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateCheckerTest {
+
+    private static final String ETAG = "\"abc123\"";
+    private static final String RELEASE = "{\"url\": \"https://api.github.com/x\", \"assets\": [{\"name\": \"a\", \"size\": 1}]," +
+            " \"tag_name\": \"v2.8.0\", \"html_url\": \"https://github.com/SkriptLang/AddonPatcher/releases/tag/v2.8.0\"," +
+            " \"body\": \"Changes\"}";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    /**
+     * The If-None-Match header of every request to /latest, "" if it wasn't sent
+     */
+    private final List<String> ifNoneMatch = new CopyOnWriteArrayList<>();
+    /**
+     * Released once the test is done, so the stalled response ends
+     */
+    private final CountDownLatch stall = new CountDownLatch(1);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/latest", exchange -> {
+            String header = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifNoneMatch.add(header == null ? "" : header);
+            if (ETAG.equals(header)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            respond(exchange, 200, RELEASE);
+        });
+        server.createContext("/none", exchange -> respond(exchange, 404, "{\"message\": \"Not Found\"}"));
+        server.createContext("/incomplete", exchange -> respond(exchange, 200, "{\"tag_name\": \"v2.8.0\"}"));
+        server.createContext("/stalled", exchange -> {
+            try {
+                stall.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        stall.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void cachesReleaseWithETag() throws IOException {
+        File cacheFile = tempDir.resolve("update-cache.txt").toFile();
+        UpdateChecker updateChecker = new UpdateChecker(url("/latest"), cacheFile, 2000);
+
+        UpdateChecker.Release release = updateChecker.fetchLatestRelease();
+        assertEquals("v2.8.0", release.getTag());
+        assertEquals("https://github.com/SkriptLang/AddonPatcher/releases/tag/v2.8.0", release.getUrl());
+        assertTrue(cacheFile.isFile());
+
+        UpdateChecker.Release cached = updateChecker.fetchLatestRelease();
+        assertEquals("v2.8.0", cached.getTag());
+        assertEquals(release.getUrl(), cached.getUrl());
+        assertEquals(2, ifNoneMatch.size());
+        assertEquals("", ifNoneMatch.get(0));
+        assertEquals(ETAG, ifNoneMatch.get(1));
+    }
+
+    @Test
+    void noReleaseReturnsNull() throws IOException {
+        assertNull(new UpdateChecker(url("/none"), null, 2000).fetchLatestRelease());
+    }
+
+    @Test
+    void incompleteReleaseFails() {
+        UpdateChecker updateChecker = new UpdateChecker(url("/incomplete"), tempDir.resolve("cache.txt").toFile(), 2000);
+        assertThrows(IOException.class, updateChecker::fetchLatestRelease);
+        assertFalse(tempDir.resolve("cache.txt").toFile().exists());
+    }
+
+    @Test
+    void stalledResponseTimesOut() {
+        UpdateChecker updateChecker = new UpdateChecker(url("/stalled"), null, 200);
+        long start = System.nanoTime();
+        assertThrows(SocketTimeoutException.class, updateChecker::fetchLatestRelease);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    private URL url(String path) {
+        try {
+            return new URL("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+}
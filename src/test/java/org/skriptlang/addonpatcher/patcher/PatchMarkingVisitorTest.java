@@ -0,0 +1,102 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+class PatchMarkingVisitorTest {
+
+    @Test
+    void marksBeforeMembers() {
+        List<String> calls = new ArrayList<>();
+        ClassVisitor classVisitor = new PatchMarkingVisitor(new RecordingVisitor(calls));
+        classVisitor.visit(V1_8, ACC_PUBLIC, "test/Main", null, "java/lang/Object", null);
+        classVisitor.visitAttribute(new PatchedAttribute(Patcher.VERSION - 1));
+        classVisitor.visitInnerClass("test/Main$Inner", "test/Main", "Inner", ACC_PUBLIC);
+        classVisitor.visitField(ACC_PUBLIC, "field", "I", null, null);
+        classVisitor.visitMethod(ACC_PUBLIC, "method", "()V", null, null);
+        classVisitor.visitEnd();
+
+        assertEquals(Arrays.asList("visit", "attribute " + PatchedAttribute.NAME, "innerClass", "field", "method", "end"), calls);
+    }
+
+    @Test
+    void marksClassWithoutMembers() {
+        List<String> calls = new ArrayList<>();
+        ClassVisitor classVisitor = new PatchMarkingVisitor(new RecordingVisitor(calls));
+        classVisitor.visit(V1_8, ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, "test/Empty", null, "java/lang/Object", null);
+        classVisitor.visitEnd();
+
+        assertEquals(Arrays.asList("visit", "attribute " + PatchedAttribute.NAME, "end"), calls);
+    }
+
+    @Test
+    void replacesOlderMarker() {
+        ClassWriter classWriter = new ClassWriter(0);
+        ClassVisitor classVisitor = new PatchMarkingVisitor(classWriter);
+        classVisitor.visit(V1_8, ACC_PUBLIC, "test/Main", null, "java/lang/Object", null);
+        classVisitor.visitAttribute(new PatchedAttribute(Patcher.VERSION - 1));
+        classVisitor.visitField(ACC_PUBLIC, "field", "I", null, null).visitEnd();
+        classVisitor.visitEnd();
+
+        assertEquals(Patcher.VERSION, PatchedAttribute.getVersion(new ClassReader(classWriter.toByteArray())));
+    }
+
+    /**
+     * Records the order of the calls made to it
+     */
+    private static class RecordingVisitor extends ClassVisitor {
+
+        private final List<String> calls;
+
+        private RecordingVisitor(List<String> calls) {
+            super(ASM9);
+            this.calls = calls;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            calls.add("visit");
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            calls.add("attribute " + attribute.type);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            calls.add("innerClass");
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            calls.add("field");
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            calls.add("method");
+            return null;
+        }
+
+        @Override
+        public void visitEnd() {
+            calls.add("end");
+        }
+
+    }
+
+}
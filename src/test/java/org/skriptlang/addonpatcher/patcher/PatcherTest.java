@@ -0,0 +1,138 @@
+package org.skriptlang.addonpatcher.patcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.skriptlang.addonpatcher.zip.ZipArchive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+class PatcherTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void appendingMatchesRewriting() throws IOException {
+        File rewritten = writeJar("rewritten.jar");
+        File appended = writeJar("appended.jar");
+        long originalSize = appended.length();
+
+        assertTrue(Patcher.patchFile(rewritten, false, ForkJoinPool.commonPool()));
+        assertTrue(Patcher.appendPatches(appended, false, ForkJoinPool.commonPool()));
+
+        Map<String, byte[]> expected = readEntries(rewritten);
+        assertTrue(expected.containsKey(PatchIndex.ENTRY_NAME));
+        assertFalse(Arrays.equals(mainClass(), expected.get("test/Main.class")));
+        assertEntriesEqual(expected, readEntries(appended));
+
+        // Only the patched class and the central directory were appended
+        assertTrue(appended.length() > originalSize);
+        try (ZipArchive archive = ZipArchive.open(appended)) {
+            assertTrue(archive.getUnusedBytes() > 0);
+            assertTrue(archive.getUnusedBytes() < archive.size() / 2);
+        }
+
+        // Already patched
+        assertFalse(Patcher.appendPatches(appended, false, ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    void compactingRemovesUnusedData() throws IOException {
+        File file = writeJar("test.jar");
+        assertTrue(Patcher.appendPatches(file, false, ForkJoinPool.commonPool()));
+        Map<String, byte[]> appended = readEntries(file);
+        long appendedSize = file.length();
+
+        Patcher.compactFile(file);
+
+        assertTrue(file.length() < appendedSize);
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            assertEquals(0, archive.getUnusedBytes());
+        }
+        assertEntriesEqual(appended, readEntries(file));
+        assertFalse(Patcher.appendPatches(file, false, ForkJoinPool.commonPool()));
+    }
+
+    private static void assertEntriesEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+    private static Map<String, byte[]> readEntries(File file) throws IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                ZipEntry zipEntry = enumeration.nextElement();
+                try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                    entries.put(zipEntry.getName(), outputStream.toByteArray());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a jar with a class that needs patching, and a larger resource that doesn't change
+     */
+    private File writeJar(String name) throws IOException {
+        byte[] resource = new byte[64 * 1024];
+        new Random(0).nextBytes(resource);
+
+        File file = tempDir.resolve(name).toFile();
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath());
+             JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+            jarOutputStream.putNextEntry(new ZipEntry("plugin.yml"));
+            jarOutputStream.write("name: Addon\ndepend: [Skript]\n".getBytes(StandardCharsets.UTF_8));
+            jarOutputStream.putNextEntry(new ZipEntry("test/Main.class"));
+            jarOutputStream.write(mainClass());
+            jarOutputStream.putNextEntry(new ZipEntry("resource.bin"));
+            jarOutputStream.write(resource);
+        }
+        return file;
+    }
+
+    private static byte[] mainClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(V1_8, ACC_PUBLIC, "test/Main", null, "java/lang/Object", null);
+        MethodVisitor methodVisitor = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "run", "()V", null, null);
+        methodVisitor.visitCode();
+        methodVisitor.visitFieldInsn(GETSTATIC, "ch/njol/skript/ScriptLoader", "currentScript", "Lch/njol/skript/config/Config;");
+        methodVisitor.visitInsn(POP);
+        methodVisitor.visitInsn(RETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+}
@@ -0,0 +1,163 @@
+package org.skriptlang.addonpatcher.variants;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+class PluginTriageTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsNameAndFlowLists() {
+        Set<String> dependencies = new HashSet<>();
+        String name = PluginTriage.readDescription("name: MyAddon\n" +
+                "version: 1.0\n" +
+                "depend: [Vault, Skript]\n" +
+                "softdepend: [ProtocolLib]\n", dependencies);
+
+        assertEquals("MyAddon", name);
+        assertEquals(new HashSet<>(Arrays.asList("vault", "skript", "protocollib")), dependencies);
+    }
+
+    @Test
+    void readsBlockListsAndSingleValues() {
+        Set<String> dependencies = new HashSet<>();
+        PluginTriage.readDescription("name: MyAddon\n" +
+                "softdepend:\n" +
+                "  - WorldGuard\n" +
+                "  - Skript\n" +
+                "loadbefore: Essentials\n" +
+                "commands:\n" +
+                "  - notADependency\n", dependencies);
+
+        assertEquals(new HashSet<>(Arrays.asList("worldguard", "skript", "essentials")), dependencies);
+    }
+
+    @Test
+    void readsPaperDependencies() {
+        Set<String> dependencies = new HashSet<>();
+        PluginTriage.readDescription("name: MyAddon\n" +
+                "dependencies:\n" +
+                "  server:\n" +
+                "    Skript:\n" +
+                "      load: BEFORE\n" +
+                "  bootstrap:\n" +
+                "    - name: Vault\n", dependencies);
+
+        assertTrue(dependencies.contains("skript"));
+        assertTrue(dependencies.contains("vault"));
+    }
+
+    @Test
+    void unquotesValuesAndSkipsComments() {
+        Set<String> dependencies = new HashSet<>();
+        String name = PluginTriage.readDescription("# A comment\n" +
+                "name: 'My Addon' # the name\n" +
+                "depend: [\"Skript\", 'Vault'] # both required\n" +
+                "softdepend:\n" +
+                "  # - Commented\n" +
+                "  - \"ProtocolLib\"\n", dependencies);
+
+        assertEquals("My Addon", name);
+        assertEquals(new HashSet<>(Arrays.asList("skript", "vault", "protocollib")), dependencies);
+    }
+
+    @Test
+    void missingNameIsNull() {
+        Set<String> dependencies = new HashSet<>();
+        assertNull(PluginTriage.readDescription("depend: []\r\nversion: 2\r\n", dependencies));
+        assertTrue(dependencies.isEmpty());
+    }
+
+    @Test
+    void declaredDependencyIsCandidate() throws IOException {
+        File jar = writeJar("addon.jar", "name: Addon\ndepend: [Skript]\n", false);
+        assertTrue(triage().isCandidate(jar));
+    }
+
+    @Test
+    void undeclaredSkriptUseIsCandidate() throws IOException {
+        File jar = writeJar("optional.jar", "name: Optional\nsoftdepend: [Vault]\n", true);
+        assertTrue(triage().isCandidate(jar));
+    }
+
+    @Test
+    void unrelatedPluginIsSkipped() throws IOException {
+        File jar = writeJar("unrelated.jar", "name: Unrelated\n", false);
+        assertFalse(triage().isCandidate(jar));
+    }
+
+    @Test
+    void jarWithoutDescriptionIsCandidate() throws IOException {
+        File jar = writeJar("library.jar", null, false);
+        assertTrue(triage().isCandidate(jar));
+    }
+
+    @Test
+    void includeAndExcludeOverride() throws IOException {
+        File unrelated = writeJar("unrelated.jar", "name: Unrelated\n", false);
+        File addon = writeJar("addon.jar", "name: Addon\ndepend: [Skript]\n", true);
+        PluginTriage triage = new PluginTriage(Collections.singletonList("unrelated"), Collections.singletonList("ADDON.jar"));
+
+        assertTrue(triage.isCandidate(unrelated));
+        assertFalse(triage.isCandidate(addon));
+    }
+
+    private static PluginTriage triage() {
+        return new PluginTriage(Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Writes a jar with the given plugin.yml (if not null) and a class,
+     * which reads {@code ScriptLoader.currentScript} if usesSkript is true
+     */
+    private File writeJar(String name, String description, boolean usesSkript) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath());
+             JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+            if (description != null) {
+                jarOutputStream.putNextEntry(new ZipEntry("plugin.yml"));
+                jarOutputStream.write(description.getBytes(StandardCharsets.UTF_8));
+            }
+            jarOutputStream.putNextEntry(new ZipEntry("test/Main.class"));
+            jarOutputStream.write(mainClass(usesSkript));
+        }
+        return file;
+    }
+
+    private static byte[] mainClass(boolean usesSkript) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(V1_8, ACC_PUBLIC, "test/Main", null, "java/lang/Object", null);
+        MethodVisitor methodVisitor = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "run", "()V", null, null);
+        methodVisitor.visitCode();
+        if (usesSkript) {
+            methodVisitor.visitFieldInsn(GETSTATIC, "ch/njol/skript/ScriptLoader", "currentScript", "Lch/njol/skript/config/Config;");
+            methodVisitor.visitInsn(POP);
+        }
+        methodVisitor.visitInsn(RETURN);
+        methodVisitor.visitMaxs(0, 0);
+        methodVisitor.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.skriptlang.addonpatcher.zip;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.skriptlang.addonpatcher.zip.ZipArchiveTest.TEXT;
+import static org.skriptlang.addonpatcher.zip.ZipArchiveWriterTest.assertContents;
+
+class ZipAppenderTest {
+
+    private static final byte[] REPLACED = "replaced".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private File file;
+    private byte[] original;
+
+    @BeforeEach
+    void writeZip() throws IOException {
+        file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            zipOutputStream.putNextEntry(new ZipEntry("kept.txt"));
+            zipOutputStream.write(TEXT);
+            zipOutputStream.putNextEntry(new ZipEntry("replaced.txt"));
+            zipOutputStream.write(TEXT);
+        }
+        original = Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    void commitKeepsAppendedEntries() throws IOException {
+        try (ZipArchive archive = ZipArchive.open(file);
+             ZipAppender appender = new ZipAppender(file, archive.size())) {
+            appendReplacement(archive, appender);
+            assertTrue(Files.exists(journal(file)));
+            appender.commit();
+        }
+
+        assertFalse(Files.exists(journal(file)));
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("kept.txt", TEXT);
+        expected.put("replaced.txt", REPLACED);
+        // Reading the file sequentially would find the old replaced.txt first, only the central directory is current
+        assertContents(expected, file);
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            // The old replaced.txt and central directory
+            assertTrue(archive.getUnusedBytes() > TEXT.length / 2);
+        }
+    }
+
+    @Test
+    void closeWithoutCommitRestoresFile() throws IOException {
+        try (ZipArchive archive = ZipArchive.open(file);
+             ZipAppender appender = new ZipAppender(file, archive.size())) {
+            appendReplacement(archive, appender);
+            assertTrue(Files.size(file.toPath()) > original.length);
+        }
+
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+        assertFalse(Files.exists(journal(file)));
+    }
+
+    @Test
+    void keepingEverythingWritesNothing() throws IOException {
+        try (ZipArchive archive = ZipArchive.open(file);
+             ZipAppender appender = new ZipAppender(file, archive.size())) {
+            try (ZipArchiveWriter writer = new ZipArchiveWriter(appender.getOutputStream(), archive.size())) {
+                for (ZipArchive.Entry entry : archive.getEntries()) {
+                    writer.keep(entry);
+                }
+            }
+            assertFalse(Files.exists(journal(file)));
+            appender.commit();
+        }
+
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void recoverRestoresInterruptedAppend() throws IOException {
+        File crashed = crash();
+        assertTrue(ZipAppender.recover(crashed));
+
+        assertArrayEquals(original, Files.readAllBytes(crashed.toPath()));
+        assertFalse(Files.exists(journal(crashed)));
+        assertFalse(ZipAppender.recover(crashed));
+    }
+
+    @Test
+    void recoverKeepsReplacedFile() throws IOException {
+        File crashed = crash();
+        // Replaced by a different, longer file, e.g. by an update of the plugin
+        byte[] replacement = new byte[original.length * 2];
+        System.arraycopy(original, 0, replacement, original.length, original.length);
+        Files.write(crashed.toPath(), replacement);
+
+        assertTrue(ZipAppender.recover(crashed));
+        assertArrayEquals(replacement, Files.readAllBytes(crashed.toPath()));
+        assertFalse(Files.exists(journal(crashed)));
+    }
+
+    @Test
+    void recoverKeepsShorterFile() throws IOException {
+        File crashed = crash();
+        byte[] replacement = new byte[original.length / 2];
+        System.arraycopy(original, 0, replacement, 0, replacement.length);
+        Files.write(crashed.toPath(), replacement);
+
+        assertTrue(ZipAppender.recover(crashed));
+        assertArrayEquals(replacement, Files.readAllBytes(crashed.toPath()));
+    }
+
+    @Test
+    void recoverIgnoresIncompleteJournal() throws IOException {
+        byte[] appended = new byte[original.length + 10];
+        System.arraycopy(original, 0, appended, 0, original.length);
+        Files.write(file.toPath(), appended);
+        Files.write(journal(file), ("AddonPatcher append journal v1\n" + original.length + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(ZipAppender.recover(file));
+        assertArrayEquals(appended, Files.readAllBytes(file.toPath()));
+        assertFalse(Files.exists(journal(file)));
+    }
+
+    @Test
+    void changedFileFails() throws IOException {
+        try (ZipArchive archive = ZipArchive.open(file);
+             ZipAppender appender = new ZipAppender(file, archive.size())) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[1]));
+            }
+            assertThrows(IOException.class, () -> appender.getOutputStream().write(1));
+            assertThrows(IOException.class, appender::commit);
+        }
+        assertFalse(Files.exists(journal(file)));
+    }
+
+    /**
+     * Keeps kept.txt and appends a new replaced.txt, then closes the writer
+     */
+    private static void appendReplacement(ZipArchive archive, ZipAppender appender) throws IOException {
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(appender.getOutputStream(), archive.size())) {
+            writer.keep(archive.getEntry("kept.txt"));
+            writer.write(archive.getEntry("replaced.txt"), REPLACED, null);
+        }
+    }
+
+    /**
+     * Copies the file and its journal while data is being appended to it,
+     * as they would be left behind if the process was killed
+     */
+    private File crash() throws IOException {
+        File crashed = tempDir.resolve("crashed.jar").toFile();
+        try (ZipArchive archive = ZipArchive.open(file);
+             ZipAppender appender = new ZipAppender(file, archive.size())) {
+            OutputStream outputStream = appender.getOutputStream();
+            outputStream.write(TEXT);
+            outputStream.flush();
+
+            Files.copy(file.toPath(), crashed.toPath());
+            Files.copy(journal(file), journal(crashed));
+        }
+        assertTrue(Files.size(crashed.toPath()) > original.length);
+        return crashed;
+    }
+
+    private static Path journal(File file) {
+        return file.toPath().resolveSibling(file.getName() + ".append-journal");
+    }
+
+}
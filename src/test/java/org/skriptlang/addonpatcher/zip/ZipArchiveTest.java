@@ -0,0 +1,175 @@
+package org.skriptlang.addonpatcher.zip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipArchiveTest {
+
+    static final byte[] TEXT = ("Lorem ipsum dolor sit amet, consectetur adipiscing elit. " +
+            "Lorem ipsum dolor sit amet, consectetur adipiscing elit.").getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsStoredAndDeflatedEntries() throws IOException {
+        File file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            zipOutputStream.putNextEntry(storedEntry("stored.txt", TEXT));
+            zipOutputStream.write(TEXT);
+            zipOutputStream.putNextEntry(new ZipEntry("dir/"));
+            zipOutputStream.putNextEntry(new ZipEntry("dir/deflated.txt"));
+            zipOutputStream.write(TEXT);
+        }
+
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            List<ZipArchive.Entry> entries = archive.getEntries();
+            assertEquals(3, entries.size());
+            assertEquals("stored.txt", entries.get(0).getName());
+            assertEquals("dir/", entries.get(1).getName());
+            assertEquals("dir/deflated.txt", entries.get(2).getName());
+
+            ZipArchive.Entry stored = entries.get(0);
+            assertEquals(ZipArchive.STORED, stored.getMethod());
+            assertArrayEquals(TEXT, archive.read(stored));
+            assertArrayEquals(TEXT, archive.readRaw(stored));
+
+            assertTrue(entries.get(1).isDirectory());
+
+            ZipArchive.Entry deflated = archive.getEntry("dir/deflated.txt");
+            assertEquals(ZipArchive.DEFLATED, deflated.getMethod());
+            assertEquals(TEXT.length, deflated.getSize());
+            assertTrue(deflated.getCompressedSize() < TEXT.length);
+            assertEquals(crc(TEXT), deflated.getCrc());
+            assertArrayEquals(TEXT, archive.read(deflated));
+
+            assertNull(archive.getEntry("missing.txt"));
+        }
+    }
+
+    @Test
+    void readsEntriesWithDataDescriptors() throws IOException {
+        // ZipOutputStream writes the sizes of deflated entries in data descriptors after their data
+        File file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            for (int i = 0; i < 3; i++) {
+                zipOutputStream.putNextEntry(new ZipEntry("entry" + i + ".txt"));
+                zipOutputStream.write(TEXT, 0, TEXT.length - i);
+            }
+        }
+
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            assertEquals(3, archive.getEntries().size());
+            for (int i = 0; i < 3; i++) {
+                ZipArchive.Entry entry = archive.getEntries().get(i);
+                assertTrue((entry.flags & ZipArchive.FLAG_DATA_DESCRIPTOR) != 0);
+                assertEquals(TEXT.length - i, entry.getSize());
+                byte[] data = archive.read(entry);
+                assertEquals(TEXT.length - i, data.length);
+                assertEquals(crc(data), entry.getCrc());
+            }
+        }
+    }
+
+    @Test
+    void readsUtf8NamesAndComments() throws IOException {
+        String name = "d\u00e9j\u00e0/\u00fcber \u2603.txt";
+        String comment = "r\u00e9sum\u00e9 \u2603";
+        File file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            ZipEntry zipEntry = new ZipEntry(name);
+            zipEntry.setComment(comment);
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(TEXT);
+            zipOutputStream.putNextEntry(new ZipEntry("plain.txt"));
+        }
+
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            ZipArchive.Entry entry = archive.getEntry(name);
+            assertNotNull(entry);
+            assertEquals(comment, entry.getComment());
+            assertArrayEquals(TEXT, archive.read(entry));
+            assertNull(archive.getEntry("plain.txt").getComment());
+        }
+    }
+
+    @Test
+    void readsZip64() throws IOException {
+        // More entries than fit in the regular end record
+        int count = 0xFFFF + 100;
+        File file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            zipOutputStream.setLevel(0);
+            for (int i = 0; i < count; i++) {
+                zipOutputStream.putNextEntry(new ZipEntry("e" + i));
+                zipOutputStream.write(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (ZipArchive archive = ZipArchive.open(file)) {
+            assertEquals(count, archive.getEntries().size());
+            ZipArchive.Entry last = archive.getEntries().get(count - 1);
+            assertEquals("e" + (count - 1), last.getName());
+            assertArrayEquals(Integer.toString(count - 1).getBytes(StandardCharsets.UTF_8), archive.read(last));
+        }
+    }
+
+    @Test
+    void unmappedArchiveFailsOnTruncatedFile() throws IOException {
+        File file = tempDir.resolve("test.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            zipOutputStream.putNextEntry(new ZipEntry("entry.txt"));
+            zipOutputStream.write(TEXT);
+        }
+
+        try (ZipArchive archive = ZipArchive.open(file, false)) {
+            // Truncated in place, as a plugin updater copying over the jar would
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            }
+            assertThrows(EOFException.class, () -> archive.read(archive.getEntry("entry.txt")));
+        }
+    }
+
+    @Test
+    void invalidFileFails() throws IOException {
+        File file = tempDir.resolve("test.jar").toFile();
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath())) {
+            outputStream.write(TEXT);
+        }
+        assertThrows(ZipException.class, () -> ZipArchive.open(file));
+    }
+
+    static ZipEntry storedEntry(String name, byte[] data) {
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(data.length);
+        zipEntry.setCompressedSize(data.length);
+        zipEntry.setCrc(crc(data));
+        return zipEntry;
+    }
+
+    static long crc(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return crc32.getValue();
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.skriptlang.addonpatcher.zip;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.skriptlang.addonpatcher.zip.ZipArchiveTest.TEXT;
+import static org.skriptlang.addonpatcher.zip.ZipArchiveTest.storedEntry;
+
+class ZipArchiveWriterTest {
+
+    private static final String UTF8_NAME = "d\u00e9j\u00e0/\u00fcber \u2603.txt";
+    private static final String UTF8_COMMENT = "r\u00e9sum\u00e9 \u2603";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void copiesEntriesWithoutRecompressing() throws IOException {
+        File source = tempDir.resolve("source.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(source.toPath()))) {
+            zipOutputStream.putNextEntry(storedEntry("stored.txt", TEXT));
+            zipOutputStream.write(TEXT);
+            // Deflated by ZipOutputStream, with a data descriptor
+            zipOutputStream.putNextEntry(new ZipEntry("deflated.txt"));
+            zipOutputStream.write(TEXT);
+            ZipEntry zipEntry = new ZipEntry(UTF8_NAME);
+            zipEntry.setComment(UTF8_COMMENT);
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(TEXT);
+        }
+
+        File target = tempDir.resolve("target.jar").toFile();
+        try (ZipArchive archive = ZipArchive.open(source);
+             ZipArchiveWriter writer = new ZipArchiveWriter(Files.newOutputStream(target.toPath()))) {
+            for (ZipArchive.Entry entry : archive.getEntries()) {
+                writer.copy(archive, entry);
+            }
+        }
+
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("stored.txt", TEXT);
+        expected.put("deflated.txt", TEXT);
+        expected.put(UTF8_NAME, TEXT);
+        assertContents(expected, target);
+        assertSequentialContents(expected, target);
+        try (ZipFile zipFile = new ZipFile(target)) {
+            assertEquals(UTF8_COMMENT, zipFile.getEntry(UTF8_NAME).getComment());
+        }
+
+        try (ZipArchive sourceArchive = ZipArchive.open(source);
+             ZipArchive targetArchive = ZipArchive.open(target)) {
+            for (ZipArchive.Entry sourceEntry : sourceArchive.getEntries()) {
+                ZipArchive.Entry targetEntry = targetArchive.getEntry(sourceEntry.getName());
+                assertEquals(sourceEntry.getMethod(), targetEntry.getMethod());
+                assertArrayEquals(sourceArchive.readRaw(sourceEntry), targetArchive.readRaw(targetEntry));
+                // The sizes are in the local header instead
+                assertEquals(0, targetEntry.flags & ZipArchive.FLAG_DATA_DESCRIPTOR);
+            }
+            // Data descriptors are dropped
+            assertTrue(targetArchive.size() < sourceArchive.size());
+            assertEquals(0, targetArchive.getUnusedBytes());
+        }
+    }
+
+    @Test
+    void writesNewEntries() throws IOException {
+        File source = tempDir.resolve("source.jar").toFile();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(source.toPath()))) {
+            ZipEntry zipEntry = new ZipEntry(UTF8_NAME);
+            zipEntry.setComment("old comment");
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(new byte[1]);
+        }
+
+        byte[] replaced = "replaced".getBytes(StandardCharsets.UTF_8);
+        File target = tempDir.resolve("target.jar").toFile();
+        try (ZipArchive archive = ZipArchive.open(source);
+             ZipArchiveWriter writer = new ZipArchiveWriter(Files.newOutputStream(target.toPath()))) {
+            writer.write(archive.getEntry(UTF8_NAME), replaced, UTF8_COMMENT);
+            writer.write("new.txt", TEXT);
+            assertTrue(writer.getBytesWritten() > 0);
+        }
+
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put(UTF8_NAME, replaced);
+        expected.put("new.txt", TEXT);
+        assertContents(expected, target);
+        assertSequentialContents(expected, target);
+        try (ZipFile zipFile = new ZipFile(target)) {
+            assertEquals(UTF8_COMMENT, zipFile.getEntry(UTF8_NAME).getComment());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("new.txt").getMethod());
+        }
+    }
+
+    @Test
+    void writesZip64() throws IOException {
+        int count = 0xFFFF + 100;
+        File target = tempDir.resolve("target.jar").toFile();
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(Files.newOutputStream(target.toPath()))) {
+            for (int i = 0; i < count; i++) {
+                writer.write("e" + i, Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(target)) {
+            assertEquals(count, zipFile.size());
+        }
+        try (ZipArchive archive = ZipArchive.open(target)) {
+            assertEquals(count, archive.getEntries().size());
+            ZipArchive.Entry last = archive.getEntry("e" + (count - 1));
+            assertArrayEquals(Integer.toString(count - 1).getBytes(StandardCharsets.UTF_8), archive.read(last));
+        }
+    }
+
+    @Test
+    void duplicateEntryFails() throws IOException {
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(new ByteArrayOutputStream())) {
+            writer.write("a.txt", TEXT);
+            assertThrows(ZipException.class, () -> writer.write("a.txt", TEXT));
+        }
+    }
+
+    /**
+     * Checks the entries of the given zip file, as listed by its central directory
+     */
+    static void assertContents(Map<String, byte[]> expected, File file) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertEquals(expected.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entry.getKey()))) {
+                    assertArrayEquals(entry.getValue(), readAll(inputStream));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the entries of the given zip file, reading it sequentially from the start, which also verifies the CRCs
+     */
+    private static void assertSequentialContents(Map<String, byte[]> expected, File file) throws IOException {
+        Map<String, byte[]> actual = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(file.toPath()))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                actual.put(zipEntry.getName(), readAll(zipInputStream));
+            }
+        }
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+}